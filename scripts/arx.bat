@@ -1,12 +1,16 @@
 @ECHO OFF
 
+REM use the class-data sharing archive, if it has been created by the build
+SET ARX_CDS=
+IF EXIST "@@INSTALLDIR@@\arx-@@VERSION@@-cli.jsa" SET ARX_CDS=-XX:+IgnoreUnrecognizedVMOptions "-XX:SharedArchiveFile=@@INSTALLDIR@@\arx-@@VERSION@@-cli.jsa" -Xshare:auto
+
 if [%1]==[] GOTO GUI
 if [%1]==[-?] GOTO CLI
 if [%1]==[--help] GOTO CLI
 if [%2]==[] GOTO GUI
 
 :CLI
-"@@JAVAEXECUTABLE@@" -jar "@@INSTALLDIR@@\arx-@@VERSION@@-cli.jar" %*
+"@@JAVAEXECUTABLE@@" %ARX_CDS% -jar "@@INSTALLDIR@@\arx-@@VERSION@@-cli.jar" %*
 GOTO EOF
 
 :GUI
@@ -0,0 +1,182 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+
+/**
+ * Admits jobs which run concurrently in one process only while their estimated memory requirements fit into a budget.
+ * Jobs are admitted in the order in which they arrive, so that large jobs are not starved by smaller ones. A job whose
+ * estimate exceeds the whole budget is admitted once no other job is running. Jobs are admitted before their data is
+ * loaded, with an estimate derived from the size of their input, which is updated once the data has been loaded.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class AdmissionController {
+
+    /** The bytes per cell of the data, for the input, the output and the buffer of the search. */
+    private static final long BYTES_PER_CELL     = 3 * 4;
+
+    /** The bytes per row, for the equivalence classes of the search. */
+    private static final long BYTES_PER_ROW      = 64;
+
+    /** The bytes per value of a hierarchy, including the dictionary entry. */
+    private static final long BYTES_PER_VALUE    = 64;
+
+    /** The bytes per node of the lattice. */
+    private static final long BYTES_PER_NODE     = 96;
+
+    /** The bytes per node of the lattice and quasi-identifier. */
+    private static final long BYTES_PER_LEVEL    = 8;
+
+    /** The constant overhead of a job. */
+    private static final long BYTES_PER_JOB      = 16L << 20;
+
+    /** The bytes per byte of an input file, for the values while they are read and encoded. */
+    private static final long BYTES_PER_FILE     = 4;
+
+    /** The ratio by which the cells of a workbook are compressed. */
+    private static final long WORKBOOK_RATIO     = 8;
+
+    /**
+     * Estimates the memory required for loading the given file, before the number of its rows is known.
+     *
+     * @param file the file, or null for the console
+     * @return the estimate in bytes
+     */
+    public static long estimate(final File file) {
+        final long length = file == null ? 0 : file.length();
+        return BYTES_PER_JOB + (length * BYTES_PER_FILE * (SpreadsheetInput.isSpreadsheet(file) ? WORKBOOK_RATIO : 1));
+    }
+
+    /**
+     * Estimates the memory required for anonymizing data with the given properties.
+     *
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param quasiIdentifiers the quasi-identifiers
+     * @param hierarchies the hierarchies
+     * @return the estimate in bytes
+     */
+    public static long estimate(final long rows, final long columns, final List<String> quasiIdentifiers, final Map<String, Hierarchy> hierarchies) {
+        long bytes = BYTES_PER_JOB + (rows * columns * BYTES_PER_CELL) + (rows * BYTES_PER_ROW);
+        long lattice = 1;
+        for (final String attribute : quasiIdentifiers) {
+            final String[][] hierarchy = hierarchies.containsKey(attribute) ? hierarchies.get(attribute).getHierarchy() : new String[0][];
+            final int levels = hierarchy.length == 0 ? 1 : hierarchy[0].length;
+            bytes += (long) hierarchy.length * levels * BYTES_PER_VALUE;
+            lattice = lattice > (Long.MAX_VALUE / levels) ? Long.MAX_VALUE : lattice * levels;
+        }
+        final long node = BYTES_PER_NODE + (quasiIdentifiers.size() * BYTES_PER_LEVEL);
+        bytes += lattice > ((Long.MAX_VALUE - bytes) / node) ? Long.MAX_VALUE - bytes : lattice * node;
+        return bytes;
+    }
+
+    /** The budget in bytes. */
+    private final long          budget;
+
+    /** The bytes of the admitted jobs. */
+    private long                used;
+
+    /** The number of admitted jobs. */
+    private int                 running;
+
+    /** The waiting jobs, in the order of their arrival. */
+    private final Deque<Object> queue = new ArrayDeque<Object>();
+
+    /**
+     * Creates a new controller.
+     *
+     * @param budget the budget in bytes
+     */
+    public AdmissionController(final long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive: " + budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Waits until a job with the given estimate is admitted.
+     *
+     * @param bytes the estimate in bytes
+     * @throws InterruptedException the interrupted exception
+     */
+    public synchronized void acquire(final long bytes) throws InterruptedException {
+        final Object ticket = new Object();
+        queue.add(ticket);
+        try {
+            while ((queue.peek() != ticket) || ((running > 0) && (bytes > (budget - used)))) {
+                wait();
+            }
+        } finally {
+            queue.remove(ticket);
+            notifyAll();
+        }
+        used += bytes;
+        running++;
+    }
+
+    /**
+     * Returns the budget.
+     *
+     * @return the budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the memory used by the admitted jobs.
+     *
+     * @return the used memory in bytes
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * Releases the memory of a job, which has been admitted with the given estimate.
+     *
+     * @param bytes the estimate in bytes
+     */
+    public synchronized void release(final long bytes) {
+        used -= bytes;
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Replaces the estimate of an admitted job, e.g. once its data has been loaded. The job is not blocked if the new
+     * estimate does not fit, as it already holds its memory, but other jobs are only admitted according to it.
+     *
+     * @param previous the previous estimate in bytes
+     * @param bytes the new estimate in bytes
+     */
+    public synchronized void update(final long previous, final long bytes) {
+        used += bytes - previous;
+        notifyAll();
+    }
+}
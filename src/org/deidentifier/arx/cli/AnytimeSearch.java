@@ -0,0 +1,552 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.deidentifier.arx.ARXAnonymizer;
+import org.deidentifier.arx.ARXConfiguration;
+import org.deidentifier.arx.ARXLattice.ARXNode;
+import org.deidentifier.arx.ARXResult;
+import org.deidentifier.arx.Data;
+import org.deidentifier.arx.cli.SearchBudget.StopReason;
+
+import com.carrotsearch.hppc.LongDoubleOpenHashMap;
+import com.carrotsearch.hppc.cursors.LongDoubleCursor;
+
+/**
+ * An anytime search over the generalization lattice. The search starts at the top of the lattice
+ * and greedily descends towards transformations with less information loss. Each node is evaluated
+ * by restricting the minimal and maximal generalization levels of all quasi-identifiers to the
+ * node and running the anonymizer. The best privacy-preserving transformation found so far is
+ * always available, so the search can be stopped at any time. The budget is checked between
+ * evaluations, which cannot be interrupted, so the search may exceed its time limit by the
+ * duration of one evaluation.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class AnytimeSearch {
+
+    /**
+     * Creates a fresh configuration for each evaluation.
+     */
+    public static interface ConfigurationFactory {
+
+        /**
+         * Creates the configuration.
+         *
+         * @return the configuration
+         */
+        public ARXConfiguration create();
+    }
+
+    /** Marks nodes which do not fulfill the privacy criteria. */
+    private static final double        NOT_ANONYMOUS = Double.NaN;
+
+    /**
+     * Returns the maximal information loss of the given transformation as a number. The information loss of ARX is
+     * generic, but all metrics offered by the command line interface measure it as a single number.
+     *
+     * @param node the transformation
+     * @return the information loss
+     */
+    public static double getInformationLoss(final ARXNode node) {
+        final Object value = node.getMaximumInformationLoss().getValue();
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("information loss is not a number: " + value);
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    /** The data. */
+    private final Data                 data;
+
+    /** The quasi-identifiers. */
+    private final String[]             attributes;
+
+    /** The heights of the hierarchies. */
+    private final int[]                heights;
+
+    /** The configuration factory. */
+    private final ConfigurationFactory factory;
+
+    /** The budget. */
+    private final SearchBudget         budget;
+
+    /** Whether non-anonymous nodes may be used to prune their specializations. */
+    private final boolean              monotonic;
+
+    /** The information loss of all evaluated nodes, keyed by their index. */
+    private final LongDoubleOpenHashMap evaluated = new LongDoubleOpenHashMap();
+
+    /** The non-anonymous nodes. */
+    private final List<int[]>          notAnonymous  = new ArrayList<int[]>();
+
+    /** The best node found so far. */
+    private int[]                      best;
+
+    /** The information loss of the best node. */
+    private double                     bestLoss      = Double.MAX_VALUE;
+
+    /** The number of pruned nodes. */
+    private int                        pruned;
+
+    /** The reason why the search stopped. */
+    private StopReason                 reason;
+
+    /** The progress monitor, or null. */
+    private ProgressMonitor            monitor;
+
+    /** The evaluator which rejects nodes without running the anonymizer, or null. */
+    private NodeEvaluator              evaluator;
+
+    /** The number of nodes rejected by the evaluator. */
+    private int                        rejected;
+
+    /** The checkpoint to which the state of the search is written, or null. */
+    private SearchCheckpoint           checkpoint;
+
+    /** The number of nodes restored from a checkpoint. */
+    private int                        restored;
+
+    /** The result of the node evaluated last, which has not been released, or null. */
+    private ARXResult                  last;
+
+    /** The node evaluated last, or null. */
+    private int[]                      lastNode;
+
+    /**
+     * Creates a new search.
+     *
+     * @param data the data
+     * @param attributes the quasi-identifiers
+     * @param heights the heights of their hierarchies
+     * @param factory the configuration factory
+     * @param budget the budget
+     * @param monotonic whether the privacy model is monotonic
+     */
+    public AnytimeSearch(final Data data,
+                         final String[] attributes,
+                         final int[] heights,
+                         final ConfigurationFactory factory,
+                         final SearchBudget budget,
+                         final boolean monotonic) {
+        this.data = data;
+        this.attributes = attributes;
+        this.heights = heights;
+        this.factory = factory;
+        this.budget = budget;
+        this.monotonic = monotonic;
+    }
+
+    /**
+     * Returns the best transformation found, or null.
+     *
+     * @return the transformation
+     */
+    public int[] getBest() {
+        return best;
+    }
+
+    /**
+     * Returns the information loss of the best transformation.
+     *
+     * @return the information loss
+     */
+    public double getBestLoss() {
+        return bestLoss;
+    }
+
+    /**
+     * Returns the budget.
+     *
+     * @return the budget
+     */
+    public SearchBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the size of the lattice, saturated at Long.MAX_VALUE.
+     *
+     * @return the size
+     */
+    public long getLatticeSize() {
+        long size = 1;
+        for (final int height : heights) {
+            if (size > (Long.MAX_VALUE / height)) {
+                return Long.MAX_VALUE;
+            }
+            size *= height;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of nodes which have been pruned without evaluation.
+     *
+     * @return the number of pruned nodes
+     */
+    public int getPruned() {
+        return pruned;
+    }
+
+    /**
+     * Returns the reason why the search stopped.
+     *
+     * @return the reason
+     */
+    public StopReason getStopReason() {
+        return reason;
+    }
+
+    /**
+     * Returns a human-readable summary of the search.
+     *
+     * @return the summary
+     */
+    public String getSummary() {
+        final long size = getLatticeSize();
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Anytime search stopped (").append(reason).append(") after ").append(budget.getElapsedTime()).append(" ms. ");
+        builder.append("Explored ").append(budget.getNodes()).append(" of ").append(size).append(" nodes (");
+        builder.append(String.format("%.4f", (100d * budget.getNodes()) / size)).append("%), pruned ").append(pruned);
+        if (evaluator != null) {
+            builder.append(", rejected ").append(rejected).append(" without anonymization, ").append(evaluator.getNumHits()).append(" from the node cache");
+        }
+        if (restored > 0) {
+            builder.append(", resumed with ").append(restored).append(" nodes from the checkpoint");
+        }
+        builder.append(". ");
+        if (best != null) {
+            builder.append("Best transformation: ").append(Arrays.toString(attributes)).append('=').append(Arrays.toString(best));
+            builder.append(", information loss: ").append(bestLoss);
+        } else {
+            builder.append("No privacy-preserving transformation found");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Restores the state of a previous search from the given file. Nodes known from the file are not evaluated again.
+     *
+     * @param checkpoint the checkpoint, whose fingerprint the file must match
+     * @param file the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void resume(final SearchCheckpoint checkpoint, final File file) throws IOException {
+        checkLatticeSize();
+        checkpoint.read(file);
+        final BitSet anonymous = checkpoint.getAnonymous();
+        final double[] losses = checkpoint.getLosses();
+        for (int index = anonymous.nextSetBit(0), i = 0; index >= 0; index = anonymous.nextSetBit(index + 1), i++) {
+            evaluated.put(index, losses[i]);
+        }
+        final BitSet checked = checkpoint.getNotAnonymous();
+        for (int index = checked.nextSetBit(0); index >= 0; index = checked.nextSetBit(index + 1)) {
+            evaluated.put(index, NOT_ANONYMOUS);
+            notAnonymous.add(node(index));
+        }
+        final BitSet skipped = checkpoint.getPruned();
+        for (int index = skipped.nextSetBit(0); index >= 0; index = skipped.nextSetBit(index + 1)) {
+            evaluated.put(index, NOT_ANONYMOUS);
+            pruned++;
+        }
+        best = checkpoint.getBest();
+        bestLoss = checkpoint.getBestLoss();
+        restored = evaluated.size();
+    }
+
+    /**
+     * Sets a checkpoint, to which the state of the search is written periodically and when the search stops.
+     *
+     * @param checkpoint the checkpoint
+     */
+    public void setCheckpoint(final SearchCheckpoint checkpoint) {
+        checkLatticeSize();
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets an evaluator, which is asked before running the anonymizer for a node and whose rejections are final.
+     *
+     * @param evaluator the evaluator
+     */
+    public void setEvaluator(final NodeEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Sets a monitor which is informed about the progress of the search.
+     *
+     * @param monitor the monitor
+     */
+    public void setMonitor(final ProgressMonitor monitor) {
+        this.monitor = monitor;
+        if (monitor != null) {
+            monitor.trackNodes();
+        }
+    }
+
+    /**
+     * Performs the search and returns the result for the best transformation found, or null if there is none. The
+     * lattice of the result only contains this transformation. The top node is evaluated regardless of the budget.
+     *
+     * @return the result
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public ARXResult search() throws IOException {
+
+        // The top node is always evaluated, even if the budget is exhausted, so that there is a result to fall back to
+        final int[] top = new int[heights.length];
+        for (int i = 0; i < heights.length; i++) {
+            top[i] = heights[i] - 1;
+        }
+        int[] current = top;
+        if (Double.isNaN(evaluate(top))) {
+            reason = StopReason.CONVERGED;
+            checkpoint();
+            release();
+            return null;
+        }
+
+        // Greedily descend
+        while (true) {
+            reason = budget.getStopReason();
+            if (reason != null) {
+                break;
+            }
+
+            int[] next = null;
+            double nextLoss = Double.MAX_VALUE;
+            for (int i = 0; (i < current.length) && !budget.isExhausted(); i++) {
+                if (current[i] == 0) {
+                    continue;
+                }
+                final int[] child = current.clone();
+                child[i]--;
+                final double loss = evaluate(child);
+                if (!Double.isNaN(loss) && (loss < nextLoss)) {
+                    next = child;
+                    nextLoss = loss;
+                }
+            }
+
+            if (next == null) {
+                reason = budget.isExhausted() ? budget.getStopReason() : StopReason.CONVERGED;
+                break;
+            }
+            current = next;
+        }
+
+        // Write the final state before producing the result, which may take long
+        checkpoint();
+
+        // Produce the result for the best node. As the data can only be anonymized once before it is released, the
+        // result of the best node is only retained if it has been evaluated last.
+        if ((last != null) && Arrays.equals(lastNode, best)) {
+            return last;
+        }
+        return anonymize(best);
+    }
+
+    /**
+     * Runs the anonymizer restricted to the given node, after releasing the result of the previous node.
+     *
+     * @param node the node
+     * @return the result
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private ARXResult anonymize(final int[] node) throws IOException {
+        release();
+        for (int i = 0; i < attributes.length; i++) {
+            data.getDefinition().setMinimumGeneralization(attributes[i], node[i]);
+            data.getDefinition().setMaximumGeneralization(attributes[i], node[i]);
+        }
+        last = new ARXAnonymizer().anonymize(data, factory.create());
+        lastNode = node;
+        return last;
+    }
+
+    /**
+     * Ensures that the nodes of the lattice can be stored in bitsets.
+     */
+    private void checkLatticeSize() {
+        if (getLatticeSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("checkpoints are not supported for lattices with more than " + Integer.MAX_VALUE + " nodes");
+        }
+    }
+
+    /**
+     * Writes the state of the search to the checkpoint, if any.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void checkpoint() throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        final BitSet checked = new BitSet();
+        for (final int[] node : notAnonymous) {
+            checked.set((int) index(node));
+        }
+        final BitSet anonymous = new BitSet();
+        final BitSet skipped = new BitSet();
+        for (final LongDoubleCursor cursor : evaluated) {
+            if (!Double.isNaN(cursor.value)) {
+                anonymous.set((int) cursor.key);
+            } else if (!checked.get((int) cursor.key)) {
+                skipped.set((int) cursor.key);
+            }
+        }
+        final double[] losses = new double[anonymous.cardinality()];
+        for (int index = anonymous.nextSetBit(0), i = 0; index >= 0; index = anonymous.nextSetBit(index + 1), i++) {
+            losses[i] = evaluated.get(index);
+        }
+        checkpoint.write(anonymous, losses, checked, skipped, best, bestLoss);
+    }
+
+    /**
+     * Evaluates the given node and returns its information loss, or NaN if it is not anonymous.
+     *
+     * @param node the node
+     * @return the information loss
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private double evaluate(final int[] node) throws IOException {
+
+        final long index = index(node);
+        if (evaluated.containsKey(index)) {
+            return evaluated.lget();
+        }
+
+        if (monotonic && isPruned(node)) {
+            pruned++;
+            if (monitor != null) {
+                monitor.nodePruned();
+            }
+            evaluated.put(index, NOT_ANONYMOUS);
+            return NOT_ANONYMOUS;
+        }
+
+        if ((evaluator != null) && !evaluator.isAnonymous(node)) {
+            rejected++;
+            if (monitor != null) {
+                monitor.nodeChecked();
+            }
+            notAnonymous.add(node);
+            evaluated.put(index, NOT_ANONYMOUS);
+            return NOT_ANONYMOUS;
+        }
+
+        final ARXResult result = anonymize(node);
+        budget.nodeEvaluated();
+        if (monitor != null) {
+            monitor.nodeChecked();
+            monitor.progress((double) (budget.getNodes() + pruned) / (double) getLatticeSize());
+        }
+        double loss = NOT_ANONYMOUS;
+        if (result.getGlobalOptimum() != null) {
+            loss = getInformationLoss(result.getGlobalOptimum());
+            if (loss < bestLoss) {
+                best = node;
+                bestLoss = loss;
+                if (monitor != null) {
+                    monitor.setBestScore(loss);
+                }
+            }
+        } else {
+            notAnonymous.add(node);
+        }
+        evaluated.put(index, loss);
+        if ((checkpoint != null) && checkpoint.isDue()) {
+            checkpoint();
+        }
+        return loss;
+    }
+
+    /**
+     * Returns a unique index for the given node.
+     *
+     * @param node the node
+     * @return the index
+     */
+    private long index(final int[] node) {
+        long index = 0;
+        for (int i = 0; i < node.length; i++) {
+            index = (index * heights[i]) + node[i];
+        }
+        return index;
+    }
+
+    /**
+     * Returns the node with the given index.
+     *
+     * @param index the index
+     * @return the node
+     */
+    private int[] node(long index) {
+        final int[] node = new int[heights.length];
+        for (int i = heights.length - 1; i >= 0; i--) {
+            node[i] = (int) (index % heights[i]);
+            index /= heights[i];
+        }
+        return node;
+    }
+
+    /**
+     * Returns whether the node is a specialization of a node known to be not anonymous, which implies that it is not anonymous either.
+     *
+     * @param node the node
+     * @return true, if pruned
+     */
+    private boolean isPruned(final int[] node) {
+        outer: for (final int[] other : notAnonymous) {
+            for (int i = 0; i < node.length; i++) {
+                if (node[i] > other[i]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases the result of the node evaluated last, if any, and removes the restriction of the generalization
+     * levels, so that the data can be anonymized again.
+     */
+    private void release() {
+        if (last == null) {
+            return;
+        }
+        data.getHandle().release();
+        for (int i = 0; i < attributes.length; i++) {
+            data.getDefinition().setMinimumGeneralization(attributes[i], 0);
+            data.getDefinition().setMaximumGeneralization(attributes[i], heights[i] - 1);
+        }
+        last = null;
+        lastNode = null;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only set view on a bit set, used to pass row numbers to ARX without boxing them upfront.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+class BitSetView extends AbstractSet<Integer> {
+
+    /** The bits. */
+    private final BitSet bits;
+
+    /** The cardinality. */
+    private final int    size;
+
+    /**
+     * Creates a new view.
+     *
+     * @param bits the bits
+     */
+    BitSetView(final BitSet bits) {
+        this.bits = bits;
+        this.size = bits.cardinality();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#contains(java.lang.Object)
+     */
+    @Override
+    public boolean contains(final Object o) {
+        return (o instanceof Integer) && ((Integer) o >= 0) && bits.get((Integer) o);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#iterator()
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+
+            /** The next index. */
+            private int next = bits.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == -1) {
+                    throw new NoSuchElementException();
+                }
+                final int current = next;
+                next = bits.nextSetBit(next + 1);
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+}
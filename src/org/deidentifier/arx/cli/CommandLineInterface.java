@@ -19,22 +19,34 @@ package org.deidentifier.arx.cli;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.StringTokenizer;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,10 +56,10 @@ import joptsimple.OptionSpec;
 
 import org.deidentifier.arx.ARXAnonymizer;
 import org.deidentifier.arx.ARXConfiguration;
+import org.deidentifier.arx.ARXLattice.ARXNode;
 import org.deidentifier.arx.ARXResult;
 import org.deidentifier.arx.AttributeType.Hierarchy;
 import org.deidentifier.arx.Data;
-import org.deidentifier.arx.DataSelector;
 import org.deidentifier.arx.DataSource;
 import org.deidentifier.arx.DataSubset;
 import org.deidentifier.arx.DataType;
@@ -64,6 +76,7 @@ import org.deidentifier.arx.criteria.HierarchicalDistanceTCloseness;
 import org.deidentifier.arx.criteria.KAnonymity;
 import org.deidentifier.arx.criteria.PrivacyCriterion;
 import org.deidentifier.arx.criteria.RecursiveCLDiversity;
+import org.deidentifier.arx.io.CSVDataInput;
 
 import com.carrotsearch.hppc.CharIntOpenHashMap;
 import com.carrotsearch.hppc.IntIntOpenHashMap;
@@ -113,7 +126,35 @@ public class CommandLineInterface {
      */
     public static void main(final String[] args) {
         final CommandLineInterface cli = new CommandLineInterface();
-        cli.run(args);
+        final int status = cli.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /** The executor for searches, or null to search in the calling thread. */
+    private final ExecutorService     searches;
+
+    /** The controller which admits searches, or null to search without admission control. */
+    private final AdmissionController admission;
+
+    /**
+     * Creates a new interface, which searches in the calling thread.
+     */
+    public CommandLineInterface() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a new interface, which searches with the given executor once a search is admitted by the given
+     * controller.
+     *
+     * @param searches the executor for searches, or null to search in the calling thread
+     * @param admission the controller which admits searches, or null
+     */
+    public CommandLineInterface(final ExecutorService searches, final AdmissionController admission) {
+        this.searches = searches;
+        this.admission = admission;
     }
 
     /**
@@ -129,9 +170,12 @@ public class CommandLineInterface {
      * --identifying [attribute1,attribute2,...]
      * -id
      * 
-     * --hierarchies [attribute1=filename1,attribute2=filename2]
+     * --hierarchies [attribute1=filename1,attribute2=INTERVAL(min,max,width[,fanout=n]),attribute3=DATE(granularity1,...)]
      * -h
      * 
+     * --hierarchy-cache [directory]
+     * -hc
+     * 
      * --datatype [attribute1=STRING|DECIMAL(format)|INTEGER|DATE(format)]
      * -d
      * 
@@ -153,15 +197,87 @@ public class CommandLineInterface {
      * --output [filename]
      * -o
      * 
+     * --output-format [CSV|JSONL|COLUMNAR|ARROW]
+     * -of
+     * 
+     * --output-partitions [value]
+     * -op
+     * 
+     * --partition-by [attribute]
+     * -pb
+     * 
      * --researchsubset [FILE=filename|QUERY=querystring]
      * -r
      * 
+     * --subset-key [attribute]
+     * -rk
+     * 
      * --separator [char|DETECT]
      * -sp
      * 
+     * --sheet [name|index]
+     * -sh
+     * 
+     * --columns [column1,column2,...]
+     * -cl
+     * 
      * --practicalmonotonicity [TRUE|FALSE]
      * -pm
      * 
+     * --time-limit [seconds]
+     * -tl
+     * 
+     * --max-nodes [value]
+     * -mn
+     * 
+     * --progress [seconds]
+     * -pr
+     * 
+     * --progress-file [filename]
+     * -pf
+     * 
+     * --progress-port [port]
+     * -pp
+     * 
+     * --profile [filename]
+     * -jp
+     * 
+     * --write-plan [filename]
+     * -wp
+     * 
+     * --report [filename]
+     * -rp
+     * 
+     * --compare-metrics [metric1,metric2,...|ALL]
+     * -cm
+     * 
+     * --node-cache [directory]
+     * -nc
+     * 
+     * --checkpoint [file]
+     * -ck
+     * 
+     * --checkpoint-interval [seconds]
+     * -ki
+     * 
+     * --resume [file]
+     * -rs
+     * 
+     * --workers [value]
+     * -wk
+     * 
+     * --coordinator [port]
+     * -co
+     * 
+     * --batch [filename]
+     * -bt
+     * 
+     * --searches [value]
+     * -sc
+     * 
+     * --memory-budget [MB]
+     * -mb
+     * 
      * 
      */
 
@@ -174,88 +290,236 @@ public class CommandLineInterface {
     public static final char SEPARATOR_CRITERIA  = ';';
 
     /**
-     * Build the data object needed for the ARXAnonymizer. Takes a file and a database string as input.
+     * Performs an anytime search which is stopped when the given budget is exhausted, and returns the result for the
+     * best transformation found.
+     *
+     * @param data the data
+     * @param quasiIdentifier the quasi identifier
+     * @param hierarchies the hierarchies
+     * @param factory the configuration factory
+     * @param budget the budget
+     * @param monotonic whether the privacy model is monotonic
+     * @param evaluator the evaluator which rejects nodes without running the anonymizer, or null
+     * @param checkpoint the checkpoint to which the state of the search is written, or null
+     * @param resume the checkpoint file from which the search is resumed, or null
+     * @param monitor the progress monitor, or null
+     * @return the result
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private ARXResult anonymizeAnytime(final Data data,
+                                       final List<String> quasiIdentifier,
+                                       final Map<String, Hierarchy> hierarchies,
+                                       final AnytimeSearch.ConfigurationFactory factory,
+                                       final SearchBudget budget,
+                                       final boolean monotonic,
+                                       final NodeEvaluator evaluator,
+                                       final SearchCheckpoint checkpoint,
+                                       final File resume,
+                                       final ProgressMonitor monitor) throws IOException {
+
+        final String[] attributes = quasiIdentifier.toArray(new String[quasiIdentifier.size()]);
+        final int[] heights = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            final String[][] hierarchy = hierarchies.get(attributes[i]).getHierarchy();
+            heights[i] = hierarchy.length == 0 ? 1 : hierarchy[0].length;
+        }
+        final AnytimeSearch search = new AnytimeSearch(data, attributes, heights, factory, budget, monotonic);
+        search.setMonitor(monitor);
+        search.setEvaluator(evaluator);
+        if (resume != null) {
+            search.resume(checkpoint, resume);
+        }
+        search.setCheckpoint(checkpoint);
+
+        final ARXResult result = search.search();
+        if (evaluator != null) {
+            evaluator.save();
+        }
+        System.err.println(search.getSummary());
+        if (result == null) {
+            throw new IllegalArgumentException("no privacy-preserving transformation found");
+        }
+        return result;
+    }
+
+    /**
+     * Anonymizes the data by partitioning the lattice among local worker processes.
+     *
+     * @param args the arguments, with which the workers are started
+     * @param plan the job plan, which is sent to the workers
+     * @param workers the number of workers
+     * @param data the data
+     * @param quasiIdentifier the quasi identifier
+     * @param hierarchies the hierarchies
+     * @param factory the configuration factory
+     * @return the result
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private ARXResult anonymizeDistributed(final String[] args,
+                                           final JobPlan plan,
+                                           final int workers,
+                                           final Data data,
+                                           final List<String> quasiIdentifier,
+                                           final Map<String, Hierarchy> hierarchies,
+                                           final AnytimeSearch.ConfigurationFactory factory) throws IOException {
+
+        final String[] attributes = quasiIdentifier.toArray(new String[quasiIdentifier.size()]);
+        final int[] heights = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            final String[][] hierarchy = hierarchies.get(attributes[i]).getHierarchy();
+            heights[i] = hierarchy.length == 0 ? 1 : hierarchy[0].length;
+        }
+        final DistributedSearch search = new DistributedSearch(args, plan, workers);
+        final ARXResult result = search.search(data, attributes, heights, factory);
+        System.err.println(search.getSummary(attributes));
+        if (result == null) {
+            throw new IllegalArgumentException("no privacy-preserving transformation found");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rows of the given source after they have passed the parsing stage and, if the job shares values
+     * with other jobs, the stage in which their values are interned, which run in their own threads.
+     *
+     * @param source the source
+     * @param job the job in which values are interned
+     * @param monitor the monitor to which the parsing stage reports the rows read, or null
+     * @param stages the list to which the stages are added, so that they can be cancelled
+     * @return the rows
+     */
+    private Iterator<String[]> pipeline(final Iterator<String[]> source,
+                                        final DictionaryStore.Job job,
+                                        final ProgressMonitor monitor,
+                                        final List<PipelineStage> stages) {
+        final PipelineStage stage = source instanceof PipelineStage ? (PipelineStage) source : PipelineStage.start("parse", source, monitor);
+        stages.add(stage);
+        if (job.isShared()) {
+            stages.add(PipelineStage.start("encode", job.intern(stage), null));
+        }
+        return stages.get(stages.size() - 1);
+    }
+
+    /**
+     * Performs the given search with the executor for searches, or in the calling thread.
+     *
+     * @param search the search
+     * @return the result
+     * @throws Exception the exception
+     */
+    private ARXResult search(final Callable<ARXResult> search) throws Exception {
+        if (searches == null) {
+            return search.call();
+        }
+        try {
+            return searches.submit(search).get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancels the given budget when the process is interrupted, e.g. via SIGINT, and delays the shutdown until the
+     * given latch is released, i.e. until the best result found so far has been written. The hook must be removed
+     * once the job has finished, as hooks would otherwise accumulate when several jobs run in one process.
+     *
+     * @param budget the budget
+     * @param finished the latch
+     * @return the shutdown hook
+     */
+    private Thread cancelOnShutdown(final SearchBudget budget, final CountDownLatch finished) {
+        final Thread hook = new Thread() {
+            @Override
+            public void run() {
+                budget.cancel();
+                try {
+                    finished.await();
+                } catch (final InterruptedException e) {
+                    // Exit
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    /**
+     * Build the data object needed for the ARXAnonymizer. Takes a file and database connection information as input.
      * If the file is not null, the data object will be created from the given file, using the given separator as separator.
-     * If the file is null and the database string is not null, the data object will be created from the given database.
-     * If both, file and database string are null, STDIN will be used for creating the data object.
+     * If the file is null and the database is not null, the data object will be created from the given database.
+     * If both, file and database are null, STDIN will be used for creating the data object.
+     * If the file is an Excel workbook, the data object will be created from the given sheet and columns of it.
      *
      * @param input the input
      * @param database the database
      * @param separator the separator
+     * @param sheet the sheet of a workbook, or null
+     * @param columns the columns of a workbook, or null
+     * @param monitor the progress monitor, or null
+     * @param job the job in which values are interned
      * @return the data
      * @throws IOException Signals that an I/O exception has occurred.
      * @throws SQLException
      */
-    private Data buildDataObject(final File input, final String database, final char separator) throws IOException, SQLException {
+    private Data buildDataObject(final File input,
+                                 final DatabaseSpec database,
+                                 final char separator,
+                                 final String sheet,
+                                 final List<String> columns,
+                                 final ProgressMonitor monitor,
+                                 final DictionaryStore.Job job) throws IOException, SQLException {
         // build data object
         Data data = null;
-        if (input != null) { // read from file
-            data = Data.create(input, separator);
-        } else if ((database != null) && (database.length() > 0)) { // read from db
-            DataSource source = getDBDatasource(database);
-            data = Data.create(source);
-        } else { // read from console
-            // format as CSV!
-            data = Data.create(System.in, separator);
+        final List<PipelineStage> stages = new ArrayList<PipelineStage>();
+        try {
+            if (SpreadsheetInput.isSpreadsheet(input)) { // read from workbook, while values are interned in a second stage
+                final SpreadsheetInput sheetInput = new SpreadsheetInput(input, sheet, columns, monitor);
+                sheetInput.start();
+                data = Data.create(pipeline(sheetInput, job, monitor, stages));
+            } else if (input != null) { // read from file, while values are interned in a second stage
+                final InputStream in = new FileInputStream(input);
+                try {
+                    data = Data.create(pipeline(new CSVDataInput(in, separator).iterator(), job, monitor, stages));
+                } finally {
+                    in.close();
+                }
+            } else if (database != null) { // read from db
+                DataSource source = getDBDatasource(database);
+                data = Data.create(source);
+                if (monitor != null) { // read by ARX, so that rows can only be counted at the end
+                    monitor.rowsRead(data.getHandle().getNumRows());
+                }
+            } else { // read from console
+                // format as CSV!
+                data = Data.create(pipeline(new CSVDataInput(System.in, separator).iterator(), job, monitor, stages));
+            }
+        } finally {
+            for (final PipelineStage stage : stages) { // stops the stages if the data could not be created
+                stage.cancel();
+            }
         }
         return data;
     }
 
     /**
-     * Returns the datasource build from the given string.
+     * Returns the datasource build from the given connection information.
      * @param database
      * @return
      * @throws SQLException
      */
-    private DataSource getDBDatasource(String database) throws SQLException {
-
-        Map<String, String> kvMap = new HashMap<String, String>();
-        StringTokenizer st = new StringTokenizer(database, "=,");
-        while (st.hasMoreTokens()) {
-            String key = st.nextToken().toUpperCase();
-            String value = st.nextToken();
-            kvMap.put(key, value);
-        }
-
-        String dbType = kvMap.get("TYPE");
-        String url = kvMap.get("URL");
-        String port = kvMap.get("PORT");
-        String username = kvMap.get("USER");
-        String password = kvMap.get("PASSWORD");
-        String db = kvMap.get("DATABASE");
-        String table = kvMap.get("TABLE");
-
-        if (dbType == null || dbType.isEmpty() || url == null || url.isEmpty() || port == null || port.isEmpty() || username == null || username.isEmpty() || password == null || password.isEmpty()
-            || db == null || db.isEmpty() || table == null || table.isEmpty()) {
-            throw new IllegalArgumentException("database string is incomplete: " + database);
-        }
-
-        String urlString = "";
-        // Load JDBC classes and build url string
-        try {
-
-            if (dbType.equalsIgnoreCase("SQLLITE")) {
-                Class.forName("org.sqlite.JDBC");
-                urlString = "jdbc:sqlite:" + url;
-            } else if (dbType.equalsIgnoreCase("MYSQL")) {
-                Class.forName("com.mysql.jdbc.Driver");
-                urlString = "jdbc:mysql://" + url + ":" + port + "/" + db;
-            } else if (dbType.equalsIgnoreCase("POSTGRESQL")) {
-                Class.forName("org.postgresql.Driver");
-                urlString = "jdbc:postgresql://" + url + ":" + port + "/" + db;
-            }
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("No JDBC driver for selected connection type");
-        }
+    private DataSource getDBDatasource(DatabaseSpec database) throws SQLException {
 
         List<String> columnNames = new ArrayList<String>();
 
         Connection connection;
         try {
-            connection = DriverManager.getConnection(urlString, username, password);
+            connection = database.connect();
             // get all columnnames from a given table
             DatabaseMetaData meta = connection.getMetaData();
-            ResultSet rs = meta.getColumns(null, null, table, null);
+            ResultSet rs = meta.getColumns(null, null, database.getTable(), null);
             while (rs.next()) {
                 columnNames.add(rs.getString("COLUMN_NAME"));
             }
@@ -263,7 +527,7 @@ public class CommandLineInterface {
             e.printStackTrace();
         }
 
-        DataSource source = DataSource.createJDBCSource(urlString, username, password, table);
+        DataSource source = DataSource.createJDBCSource(database.getUrl(), database.getUser(), database.getPassword(), database.getTable());
 
         for (String column : columnNames) {
             source.addColumn(column);
@@ -329,6 +593,98 @@ public class CommandLineInterface {
         return seps[selection];
     }
 
+    /**
+     * Creates the information loss metric for the given metric option.
+     *
+     * @param metric the metric
+     * @return the metric
+     */
+    private org.deidentifier.arx.metric.Metric<?> createMetric(final Metric metric) {
+        switch (metric) {
+        case PREC:
+            return org.deidentifier.arx.metric.Metric.createPrecisionMetric(true);
+        case NMPREC:
+            return org.deidentifier.arx.metric.Metric.createPrecisionMetric(false);
+        case HEIGHT:
+            return org.deidentifier.arx.metric.Metric.createHeightMetric();
+        case DMSTAR:
+            return org.deidentifier.arx.metric.Metric.createDiscernabilityMetric(true);
+        case DM:
+            return org.deidentifier.arx.metric.Metric.createDiscernabilityMetric(false);
+        case ENTROPY:
+            return org.deidentifier.arx.metric.Metric.createEntropyMetric(true);
+        case NMENTROPY:
+            return org.deidentifier.arx.metric.Metric.createEntropyMetric(false);
+        case AECS:
+            return org.deidentifier.arx.metric.Metric.createAECSMetric();
+        default:
+            throw new IllegalArgumentException("metric unknown: " + metric);
+        }
+    }
+
+    /**
+     * Creates the evaluator which decides the criteria of the given plan for the anytime search, or returns null if
+     * the criteria are not supported by the evaluator.
+     *
+     * @param data the data
+     * @param quasiIdentifier the quasi identifier
+     * @param hierarchies the hierarchies
+     * @param sensitiveAttributes the sensitive attributes
+     * @param plan the plan
+     * @param cache the cache directory
+     * @return the evaluator, or null
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private NodeEvaluator createEvaluator(final Data data,
+                                          final List<String> quasiIdentifier,
+                                          final Map<String, Hierarchy> hierarchies,
+                                          final List<String> sensitiveAttributes,
+                                          final JobPlan plan,
+                                          final File cache) throws IOException {
+        if (!NodeEvaluator.isSupported(plan.getCriteria())) {
+            System.err.println("Node cache not used, as it only supports k-anonymity and l-diversity");
+            return null;
+        }
+        return new NodeEvaluator(data.getHandle(),
+                                 quasiIdentifier.toArray(new String[quasiIdentifier.size()]),
+                                 hierarchies,
+                                 sensitiveAttributes.toArray(new String[sensitiveAttributes.size()]),
+                                 plan.getCriteria(),
+                                 plan.getSuppression(),
+                                 cache);
+    }
+
+    /**
+     * Creates the job plan from the given profile, which is either a properties file or a binary plan, and from the
+     * given command line options. Options override the corresponding entries of a profile, but cannot be combined
+     * with a binary plan.
+     *
+     * @param options the options
+     * @param planOptions the options describing the job by profile key
+     * @param profile the profile, or null
+     * @return the job plan
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @throws ParseException the parse exception
+     */
+    private JobPlan createPlan(final OptionSet options, final Map<String, OptionSpec<?>> planOptions, final File profile) throws IOException,
+                                                                                                                          ParseException {
+        if ((profile != null) && JobPlan.isBinary(profile)) {
+            for (final Entry<String, OptionSpec<?>> entry : planOptions.entrySet()) {
+                if (options.has(entry.getValue())) {
+                    throw new IllegalArgumentException("a compiled plan cannot be combined with option --" + entry.getKey());
+                }
+            }
+            return JobPlan.read(profile);
+        }
+        final Properties properties = profile != null ? JobPlan.loadProfile(profile) : new Properties();
+        for (final Entry<String, OptionSpec<?>> entry : planOptions.entrySet()) {
+            if (options.has(entry.getValue())) {
+                properties.setProperty(entry.getKey(), String.valueOf(options.valueOf(entry.getValue())));
+            }
+        }
+        return JobPlan.compile(properties);
+    }
+
     /**
      * Creates the list of privacy criteria from the given list of criteria.
      *
@@ -388,75 +744,62 @@ public class CommandLineInterface {
     }
 
     /**
-     * Creates a map from the option string containing the attribute names as keys and the corresponding data types as values.
+     * Creates a map from the option string containing the attribute names as keys and the corresponding hierarchies as values.
      *
-     * @param datatypeOption the datatype option
+     * Hierarchies are either loaded from files or generated from the distinct values of the attribute.
+     *
+     * @param hierarchyOption the hierarchy specifications by attribute
+     * @param seperator the seperator
+     * @param job the job through which hierarchies are loaded
+     * @param data the data
+     * @param parsers the parsers of typed attributes
+     * @param compactor the compactor which validates and compacts hierarchies loaded from files
      * @return the map
+     * @throws IOException Signals that an I/O exception has occurred.
      */
-    private Map<String, DataType<?>> parseDataTypes(final List<String> datatypeOption) {
-        final Map<String, DataType<?>> datatypes = new HashMap<String, DataType<?>>();
-        for (final String type : datatypeOption) {
-            final String[] split = ParseUtil.splitEscapedStringBySeparator(type, SEPARATOR_KEY_VALUE);
-            if (split.length != 2) {
-                throw new IllegalArgumentException("datatype string is malformed.");
-            }
-
-            final Pattern pattern = Pattern.compile("(\\w+)[(]?(.*)", Pattern.CASE_INSENSITIVE);
-            final Matcher matcher = pattern.matcher(split[1]);
-            while (matcher.find()) {
-                final String datatype = matcher.group(1).toUpperCase();
-                final String f = matcher.group(2);
-                String format = "";
-                if (f.length() > 0) {
-                    format = f.substring(0, f.length() - 1);
-                }
-                switch (datatype) {
-                case "STRING":
-                    datatypes.put(split[0], DataType.STRING);
-                    break;
-                case "INTEGER":
-                    datatypes.put(split[0], DataType.INTEGER);
-                    break;
-                case "DECIMAL":
-                    datatypes.put(split[0], DataType.createDecimal(format));
-                    break;
-                case "DATE":
-                    datatypes.put(split[0], DataType.createDate(format));
-                    break;
-                default:
-                    throw new IllegalArgumentException("datatype not recognized: " + datatype);
-                }
+    private Map<String, Hierarchy> parseHierarchies(final Map<String, String> hierarchyOption,
+                                                    final char seperator,
+                                                    final DictionaryStore.Job job,
+                                                    final Data data,
+                                                    final Map<String, ValueParser> parsers,
+                                                    final HierarchyCompactor compactor) throws IOException {
+        final Map<String, Hierarchy> hierarchies = new HashMap<String, Hierarchy>();
+        for (final Entry<String, String> entry : hierarchyOption.entrySet()) {
+            final Hierarchy h;
+            if (HierarchyGenerator.isSpecification(entry.getValue())) {
+                h = new HierarchyGenerator(entry.getValue()).generate(data.getHandle(), entry.getKey(), parsers.get(entry.getKey()), job);
+            } else {
+                h = compactor.load(entry.getKey(), new File(entry.getValue()), seperator, data.getHandle(), job);
             }
+            hierarchies.put(entry.getKey(), h);
         }
-        return datatypes;
+        return hierarchies;
     }
 
     /**
-     * Creates a map from the option string containing the attribute names as keys and the corresponding hierarchies as values.
+     * Parses a list of metrics, or ALL for all metrics.
      *
-     * @param hierarchyOption the hierarchy option
-     * @param seperator the seperator
-     * @return the map
-     * @throws IOException Signals that an I/O exception has occurred.
+     * @param metricsOption the metrics option
+     * @return the metrics
      */
-    private Map<String, Hierarchy> parseHierarchies(final List<String> hierarchyOption, final char seperator) throws IOException {
-        final Map<String, Hierarchy> hierarchies = new HashMap<String, Hierarchy>();
-
-        if ((hierarchyOption != null) && (hierarchyOption.size() > 0)) {
-            for (String string : hierarchyOption) {
-                String[] split = ParseUtil.splitEscapedStringBySeparator(string, SEPARATOR_KEY_VALUE);
-                if (split.length != 2) {
-                    throw new IllegalArgumentException("hierarchy string is malformed.");
-                }
-                final Hierarchy h = Hierarchy.create(split[1], seperator);
-                hierarchies.put(split[0], h);
+    private List<Metric> parseMetrics(final String metricsOption) {
+        if (metricsOption.trim().equalsIgnoreCase("ALL")) {
+            return Arrays.asList(Metric.values());
+        }
+        final Set<Metric> metrics = new LinkedHashSet<Metric>();
+        for (final String metric : ParseUtil.splitEscapedStringBySeparator(metricsOption, SEPARATOR_OPTION)) {
+            try {
+                metrics.add(Metric.valueOf(metric.trim().toUpperCase()));
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("metric unknown: " + metric + ", possible values " + Arrays.toString(Metric.values()));
             }
         }
-        return hierarchies;
+        return new ArrayList<Metric>(metrics);
     }
 
     /**
-     * Parses the separator option and returns the separator char.
+     * Parses the separator option and returns the separator char. The separator of an Excel workbook, which is
+     * only used for hierarchies, is not detected.
      *
      * @param separatorOption the separator option
      * @param input the input
@@ -467,7 +810,7 @@ public class CommandLineInterface {
         if (separatorOption.length() == 1) {
             return separatorOption.charAt(0);
         } else if (separatorOption.equalsIgnoreCase("DETECT")) {
-            return detectSeparator(input);
+            return SpreadsheetInput.isSpreadsheet(input) ? ';' : detectSeparator(input);
         } else {
             throw new IllegalArgumentException("only a single character or the keyword 'DETECT' is allowed");
         }
@@ -479,11 +822,20 @@ public class CommandLineInterface {
      * @param subsetOption the subset option
      * @param separator the separator
      * @param data the data
+     * @param key the key column for matching rows, or null
+     * @param database the database from which the data has been loaded, or null. Queries are then evaluated by the database.
+     * @param parsers the parsers of typed attributes
      * @return the data subset
      * @throws ParseException the parse exception
      * @throws IOException Signals that an I/O exception has occurred.
+     * @throws SQLException
      */
-    private DataSubset parseSubset(final String subsetOption, final char separator, final Data data) throws ParseException, IOException {
+    private DataSubset parseSubset(final String subsetOption,
+                                   final char separator,
+                                   final Data data,
+                                   final String key,
+                                   final DatabaseSpec database,
+                                   final Map<String, ValueParser> parsers) throws ParseException, IOException, SQLException {
 
         DataSubset subset = null;
 
@@ -497,11 +849,15 @@ public class CommandLineInterface {
 
                 switch (type) {
                 case "FILE":
-                    subset = DataSubset.create(data, Data.create(content, separator));
+                    subset = new SubsetBuilder(data).fromFile(new File(content), separator, key);
                     break;
                 case "QUERY":
-                    final DataSelector selector = DataSelector.create(data, content);
-                    subset = DataSubset.create(data, selector);
+                    final QueryCompiler compiler = new QueryCompiler(data, parsers);
+                    if (database != null) { // evaluate in the database
+                        subset = new SubsetBuilder(data).fromDatabase(database, compiler.compile(content), key);
+                    } else {
+                        subset = compiler.createSubset(content, Runtime.getRuntime().availableProcessors());
+                    }
                     break;
                 default:
                     throw new IllegalArgumentException("subset specification not recognized: " + type);
@@ -516,8 +872,9 @@ public class CommandLineInterface {
      * Parse the command line and anonymize.
      *
      * @param args the args
+     * @return the exit status, which is zero if the job succeeded
      */
-    private void run(final String[] args) {
+    public int run(final String[] args) {
         final OptionParser parser = new OptionParser();
         parser.formatHelpWith(new ArxHelpFormatter());
 
@@ -547,10 +904,15 @@ public class CommandLineInterface {
 
         // hierarchies
         final OptionSpec<String> hierarchyOption = parser.acceptsAll(Arrays.asList("h", "hierarchies"),
-                                                                     "hierarchies for the attributes, delimited by ','. Syntax: [attributname1=filename1,attributname2=filename2]")
+                                                                     "hierarchies for the attributes, delimited by ','. Hierarchies are loaded from files or generated from the values of the attribute. Syntax: [attributname1=filename1,attributname2=INTERVAL(min,max,width[,fanout=n]),attributname3=DATE(DAY|MONTH|QUARTER|YEAR|DECADE|CENTURY,...)]")
                                                          .withRequiredArg()
                                                          .ofType(String.class);
 
+        final OptionSpec<File> hierarchyCacheOption = parser.acceptsAll(Arrays.asList("hc", "hierarchy-cache"),
+                                                                        "directory in which hierarchies are cached after unused and duplicate rows have been removed")
+                                                            .withRequiredArg()
+                                                            .ofType(File.class);
+
         // datatypes
         final OptionSpec<String> dataTypeOption = parser.acceptsAll(Arrays.asList("d", "datatype"),
                                                                     "datatypes of the attributes, delimited by ','. Syntax: [attributname1=STRING|DECIMAL(format)|INTEGER|DATE(format)]")
@@ -594,12 +956,33 @@ public class CommandLineInterface {
                                                     .withRequiredArg()
                                                     .ofType(File.class);
 
+        final OptionSpec<String> outputFormatOption = parser.acceptsAll(Arrays.asList("of", "output-format"),
+                                                                        "format of the anonymized output, possible values " +
+                                                                                Arrays.toString(OutputFormat.FORMATS) + "; if omitted CSV is assumed")
+                                                            .withRequiredArg()
+                                                            .ofType(String.class)
+                                                            .defaultsTo("CSV");
+
+        final OptionSpec<Integer> partitionsOption = parser.acceptsAll(Arrays.asList("op", "output-partitions"),
+                                                                       "number of files into which the output is split, each written by its own thread. A manifest is written next to them")
+                                                           .withRequiredArg()
+                                                           .ofType(Integer.class);
+        final OptionSpec<String> partitionByOption = parser.acceptsAll(Arrays.asList("pb", "partition-by"),
+                                                                       "attribute by which the output is partitioned, so that all rows with the same value are written to the same file")
+                                                           .withRequiredArg()
+                                                           .ofType(String.class);
+
         // research subset
         final OptionSpec<String> researchSubsetOption = parser.acceptsAll(Arrays.asList("r", "researchsubset"),
                                                                           "specification of a research subset, either by specifying a file or a query. Syntax: [FILE=filename|QUERY=querystring]")
                                                               .withRequiredArg()
                                                               .ofType(String.class);
 
+        final OptionSpec<String> subsetKeyOption = parser.acceptsAll(Arrays.asList("rk", "subset-key"),
+                                                                     "column used for matching rows of a research subset file or of a query evaluated by the database; if omitted all columns of the file or the primary key of the table are compared")
+                                                         .withRequiredArg()
+                                                         .ofType(String.class);
+
         // separator
         final OptionSpec<String> separatorOption = parser.acceptsAll(Arrays.asList("sp", "separator"),
                                                                      "seperator used in the sepcified files; if omitted ';' is assumed. Syntax: [char|DETECT]")
@@ -607,6 +990,18 @@ public class CommandLineInterface {
                                                          .ofType(String.class)
                                                          .defaultsTo(";");
 
+        // spreadsheet
+        final OptionSpec<String> sheetOption = parser.acceptsAll(Arrays.asList("sh", "sheet"),
+                                                                 "name or 1-based index of the sheet, if the input is an Excel workbook (.xlsx); if omitted the first sheet is read")
+                                                     .withRequiredArg()
+                                                     .ofType(String.class);
+
+        final OptionSpec<String> columnsOption = parser.acceptsAll(Arrays.asList("cl", "columns"),
+                                                                   "names of the columns which are read, if the input is an Excel workbook (.xlsx); if omitted all columns are read. Syntax: [column1,column2,...]")
+                                                       .withRequiredArg()
+                                                       .ofType(String.class)
+                                                       .withValuesSeparatedBy(',');
+
         // practical monotonicity
         final OptionSpec<Boolean> practicalOption = parser.acceptsAll(Arrays.asList("pm", "practicalmonotonicity"),
                                                                       "if present, practical monotonicity is assumed")
@@ -614,84 +1009,202 @@ public class CommandLineInterface {
                                                           .ofType(Boolean.class)
                                                           .defaultsTo(false);
 
+        // anytime search
+        final OptionSpec<Long> timeLimitOption = parser.acceptsAll(Arrays.asList("tl", "time-limit"),
+                                                                   "time limit for the search in seconds. If present, an anytime search is performed and the best transformation found so far is returned")
+                                                       .withRequiredArg()
+                                                       .ofType(Long.class);
+        final OptionSpec<Integer> maxNodesOption = parser.acceptsAll(Arrays.asList("mn", "max-nodes"),
+                                                                     "maximal number of transformations evaluated. If present, an anytime search is performed and the best transformation found so far is returned")
+                                                         .withRequiredArg()
+                                                         .ofType(Integer.class);
+
+        // progress
+        final OptionSpec<Integer> progressOption = parser.acceptsAll(Arrays.asList("pr", "progress"),
+                                                                     "if present, progress is reported on stderr. Optionally the interval in seconds, default is 5")
+                                                         .withOptionalArg()
+                                                         .ofType(Integer.class)
+                                                         .defaultsTo(5);
+        final OptionSpec<File> progressFileOption = parser.acceptsAll(Arrays.asList("pf", "progress-file"),
+                                                                      "JSON file which is periodically rewritten with the current progress")
+                                                          .withRequiredArg()
+                                                          .ofType(File.class);
+        final OptionSpec<Integer> progressPortOption = parser.acceptsAll(Arrays.asList("pp", "progress-port"),
+                                                                         "local port on which progress metrics are served in the Prometheus text format")
+                                                             .withRequiredArg()
+                                                             .ofType(Integer.class);
+
+        // job plans
+        final OptionSpec<File> profileOption = parser.acceptsAll(Arrays.asList("jp", "profile"),
+                                                                 "profile describing the job, either a properties file whose keys are the long names of the options or a compiled plan. Options given on the command line override the profile")
+                                                     .withRequiredArg()
+                                                     .ofType(File.class);
+        final OptionSpec<File> writePlanOption = parser.acceptsAll(Arrays.asList("wp", "write-plan"),
+                                                                   "if present, the job is validated and written as a compiled plan to the given file, without anonymizing any data")
+                                                       .withRequiredArg()
+                                                       .ofType(File.class);
+        final OptionSpec<File> reportOption = parser.acceptsAll(Arrays.asList("rp", "report"),
+                                                                "if present, statistics of the anonymized data, i.e. equivalence classes, suppression, generalization levels, information loss under all metrics and re-identification risk, are written as JSON to the given file")
+                                                    .withRequiredArg()
+                                                    .ofType(File.class);
+        final OptionSpec<String> compareMetricsOption = parser.acceptsAll(Arrays.asList("cm", "compare-metrics"),
+                                                                          "if present, the anonymous transformations found by the search are compared under the given metrics " +
+                                                                                  Arrays.toString(Metric.values()) + " or ALL, and the optimum under each metric is reported. " +
+                                                                                  "Only minimal transformations are compared, unless a metric is not monotonic with the given suppression")
+                                                              .withRequiredArg()
+                                                              .ofType(String.class);
+        final OptionSpec<File> nodeCacheOption = parser.acceptsAll(Arrays.asList("nc", "node-cache"),
+                                                                   "directory in which the equivalence classes of the transformations checked by the anytime search are cached across runs with the same data and hierarchies, so that k-anonymity and l-diversity are decided without running the anonymizer")
+                                                       .withRequiredArg()
+                                                       .ofType(File.class);
+        final OptionSpec<File> checkpointOption = parser.acceptsAll(Arrays.asList("ck", "checkpoint"),
+                                                                    "file to which the state of the anytime search is written periodically and when the search stops, e.g. when the process is terminated")
+                                                        .withRequiredArg()
+                                                        .ofType(File.class);
+        final OptionSpec<Long> checkpointIntervalOption = parser.acceptsAll(Arrays.asList("ki", "checkpoint-interval"),
+                                                                            "interval between checkpoints in seconds; if omitted 60 seconds are used")
+                                                                .withRequiredArg()
+                                                                .ofType(Long.class)
+                                                                .defaultsTo(60L);
+        final OptionSpec<File> resumeOption = parser.acceptsAll(Arrays.asList("rs", "resume"),
+                                                                "checkpoint from which the anytime search is resumed. Further checkpoints are written to the same file, unless --checkpoint is given")
+                                                    .withRequiredArg()
+                                                    .ofType(File.class);
+        final OptionSpec<Integer> workersOption = parser.acceptsAll(Arrays.asList("wk", "workers"),
+                                                                    "if present, the lattice is partitioned and searched by the given number of local worker processes, which are started with the same options")
+                                                        .withRequiredArg()
+                                                        .ofType(Integer.class);
+        final OptionSpec<Integer> coordinatorOption = parser.acceptsAll(Arrays.asList("co", "coordinator"),
+                                                                        "connects as a worker to the coordinator listening on the given local port, used by --workers")
+                                                            .withRequiredArg()
+                                                            .ofType(Integer.class);
+        final OptionSpec<File> batchOption = parser.acceptsAll(Arrays.asList("bt", "batch"),
+                                                               "runs the jobs of the given file concurrently, each line of which contains the options of one job, which must include --output")
+                                                   .withRequiredArg()
+                                                   .ofType(File.class);
+        final OptionSpec<Integer> searchesOption = parser.acceptsAll(Arrays.asList("sc", "searches"),
+                                                                     "maximal number of concurrent searches in batch mode; if omitted the number of processors is used")
+                                                         .withRequiredArg()
+                                                         .ofType(Integer.class);
+        final OptionSpec<Long> memoryBudgetOption = parser.acceptsAll(Arrays.asList("mb", "memory-budget"),
+                                                                      "memory in MB available to concurrent jobs in batch mode. Jobs whose estimated memory does not fit wait for others to finish before loading their data; if omitted 80% of the maximal heap is used")
+                                                          .withRequiredArg()
+                                                          .ofType(Long.class);
+
+        final Map<String, OptionSpec<?>> planOptions = new LinkedHashMap<String, OptionSpec<?>>();
+        for (final String key : JobPlan.KEYS) { // profile keys are the long names of the options
+            planOptions.put(key, parser.recognizedOptions().get(key));
+        }
+
+        final DictionaryStore.Job job = DictionaryStore.getInstance().open(searches != null); // only batches share values
+        ProgressMonitor monitor = null;
+        long reserved = -1; // the memory reserved by the admission controller, or -1
+        Exception failure = null;
         try {
             final OptionSet options = parser.parse(args);
 
             if (options.has(help)) {
                 parser.printHelpOn(System.out);
-                System.exit(0);
+                return 0;
+            }
+
+            if (options.has(batchOption)) { // run the jobs of a batch file
+                final JobExecutor executor = new JobExecutor(options.has(searchesOption) ? options.valueOf(searchesOption)
+                                                                                         : Runtime.getRuntime().availableProcessors(),
+                                                             options.has(memoryBudgetOption) ? options.valueOf(memoryBudgetOption) << 20
+                                                                                             : (Runtime.getRuntime().maxMemory() / 10) * 8);
+                try {
+                    return executor.runBatch(options.valueOf(batchOption), System.err);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+
+            final DistributedSearch.Worker worker = options.has(coordinatorOption) ? new DistributedSearch.Worker(options.valueOf(coordinatorOption)) : null;
+            final JobPlan plan = worker != null ? worker.getPlan() : createPlan(options, planOptions, options.valueOf(profileOption));
+            if (options.has(writePlanOption)) {
+                plan.write(options.valueOf(writePlanOption));
+                System.out.println("Job plan written to " + options.valueOf(writePlanOption));
+                return 0;
             }
 
             final File input = options.valueOf(fileOption);
             final char separator = parseSeparator(options.valueOf(separatorOption), input);
+            if ((options.has(sheetOption) || options.has(columnsOption)) && !SpreadsheetInput.isSpreadsheet(input)) {
+                throw new IllegalArgumentException("sheets and columns can only be selected for Excel workbooks (.xlsx)");
+            }
 
-            final String database = options.valueOf(databaseOption);
+            final String databaseOptionValue = options.valueOf(databaseOption);
+            DatabaseSpec database = null;
+            if ((input == null) && (databaseOptionValue != null) && (databaseOptionValue.length() > 0)) {
+                database = new DatabaseSpec(databaseOptionValue);
+            }
+            if (options.has(workersOption) && (input == null) && (database == null)) {
+                throw new IllegalArgumentException("distributed search requires a file or a database as input, as workers cannot read the standard input");
+            }
 
-            final boolean practicalMonotonicity = options.valueOf(practicalOption);
-            final Map<String, Hierarchy> hierarchies = parseHierarchies(Arrays.asList(ParseUtil.splitEscapedStringBySeparator(options.valueOf(hierarchyOption),
-                                                                                                                              SEPARATOR_OPTION)),
-                                                                        separator);
+            if (options.has(progressOption) || options.has(progressFileOption) || options.has(progressPortOption)) {
+                monitor = new ProgressMonitor(options.has(progressOption) ? System.err : null,
+                                              options.valueOf(progressFileOption),
+                                              options.valueOf(progressOption));
+                if (options.has(progressPortOption)) {
+                    monitor.serve(options.valueOf(progressPortOption));
+                }
+            }
 
-            final Data data = buildDataObject(input, database, separator);
+            final boolean practicalMonotonicity = plan.isPracticalMonotonicity();
 
-            final DataSubset subset = parseSubset(options.valueOf(researchSubsetOption), separator, data);
-            if (!options.has(criteriaOption)) {
-                throw new IllegalArgumentException("no criteria has been specified");
+            // wait until the memory estimated from the size of the input is available
+            if (admission != null) {
+                final long[] size = database != null ? database.getSize() : null;
+                final long estimate = size != null ? AdmissionController.estimate(size[0], size[1], plan.getQuasiIdentifiers(),
+                                                                                  Collections.<String, Hierarchy> emptyMap())
+                                                   : AdmissionController.estimate(input);
+                admission.acquire(estimate);
+                reserved = estimate;
             }
-            final List<PrivacyCriterion> criteria = parseCriteria(Criterion.create(options.valueOf(criteriaOption), SEPARATOR_OPTION),
-                                                                  hierarchies,
-                                                                  subset);
+
+            // hierarchy files are read while the data is read
+            final HierarchyCompactor compactor = new HierarchyCompactor(options.valueOf(hierarchyCacheOption), System.err);
+            final Map<String, ValueParser> parsers = plan.getParsers();
+            final Data data;
+            final Map<String, Hierarchy> hierarchies;
+            try {
+                for (final String hierarchy : plan.getHierarchies().values()) {
+                    if (!HierarchyGenerator.isSpecification(hierarchy)) {
+                        compactor.prefetch(new File(hierarchy), separator);
+                    }
+                }
+                data = buildDataObject(input, database, separator, options.valueOf(sheetOption),
+                                       options.has(columnsOption) ? options.valuesOf(columnsOption) : null, monitor, job);
+                hierarchies = parseHierarchies(plan.getHierarchies(), separator, job, data, parsers, compactor);
+            } finally {
+                compactor.cancel(); // reads which have not been used
+            }
+
+            final DataSubset subset = parseSubset(options.valueOf(researchSubsetOption),
+                                                 separator,
+                                                 data,
+                                                 options.valueOf(subsetKeyOption),
+                                                 database,
+                                                 parsers);
+            final List<PrivacyCriterion> criteria = parseCriteria(plan.getCriteria(), hierarchies, subset);
 
             final File output = options.valueOf(outputOption);
+            final OutputFormat format = OutputFormat.forName(options.valueOf(outputFormatOption), separator);
 
-            final double supression = options.valueOf(supressionOption);
+            final double supression = plan.getSuppression();
 
             // set metric
-            final Metric mValue = Metric.valueOf(options.valueOf(metricOption).trim().toUpperCase());
-            org.deidentifier.arx.metric.Metric<?> metric = null;
-            switch (mValue) {
-            case PREC:
-                metric = org.deidentifier.arx.metric.Metric.createPrecisionMetric(true);
-                break;
-            case NMPREC:
-                metric = org.deidentifier.arx.metric.Metric.createPrecisionMetric(false);
-                break;
-            case HEIGHT:
-                metric = org.deidentifier.arx.metric.Metric.createHeightMetric();
-                break;
-            case DMSTAR:
-                metric = org.deidentifier.arx.metric.Metric.createDiscernabilityMetric(true);
-                break;
-            case DM:
-                metric = org.deidentifier.arx.metric.Metric.createDiscernabilityMetric(false);
-                break;
-            case ENTROPY:
-                metric = org.deidentifier.arx.metric.Metric.createEntropyMetric(true);
-                break;
-            case NMENTROPY:
-                metric = org.deidentifier.arx.metric.Metric.createEntropyMetric(false);
-                break;
-            case AECS:
-                metric = org.deidentifier.arx.metric.Metric.createAECSMetric();
-                break;
-            default:
-                throw new IllegalArgumentException("metric unknown: " + mValue);
-            }
-
-            final List<String> quasiIdentifier = Arrays.asList(ParseUtil.splitEscapedStringBySeparator(options.valueOf(qiOption),
-                                                                                                       SEPARATOR_OPTION));
-            final List<String> sensitiveAttributes = Arrays.asList(ParseUtil.splitEscapedStringBySeparator(options.valueOf(seOption),
-                                                                                                           SEPARATOR_OPTION));
-            final List<String> insensitiveAttributes = Arrays.asList(ParseUtil.splitEscapedStringBySeparator(options.valueOf(isOption),
-                                                                                                             SEPARATOR_OPTION));
-            final List<String> identifyingAttributes = Arrays.asList(ParseUtil.splitEscapedStringBySeparator(options.valueOf(idOption),
-                                                                                                             SEPARATOR_OPTION));
+            final Metric mValue = plan.getMetric();
+
+            final List<String> quasiIdentifier = plan.getQuasiIdentifiers();
+            final List<String> sensitiveAttributes = plan.getSensitiveAttributes();
+            final List<String> insensitiveAttributes = plan.getInsensitiveAttributes();
+            final List<String> identifyingAttributes = plan.getIdentifyingAttributes();
 
             // define qis
             for (final String attributName : quasiIdentifier) {
-                if (!hierarchies.containsKey(attributName)) {
-                    throw new IllegalArgumentException("quasi identifiers must have a hierarchy specified: " + attributName);
-                }
                 data.getDefinition().setAttributeType(attributName, hierarchies.get(attributName));
             }
 
@@ -711,58 +1224,190 @@ public class CommandLineInterface {
             }
 
             // data types
-            final Map<String, DataType<?>> dataTypes = parseDataTypes(Arrays.asList(ParseUtil.splitEscapedStringBySeparator(options.valueOf(dataTypeOption),
-                                                                                                                            SEPARATOR_OPTION)));
+            final Map<String, DataType<?>> dataTypes = plan.getDataTypes();
             for (final Entry<String, DataType<?>> entry : dataTypes.entrySet()) {
                 data.getDefinition().setDataType(entry.getKey(), entry.getValue());
             }
 
             // build config
-            final ARXConfiguration config = ARXConfiguration.create();
-            config.setMaxOutliers(supression);
-            config.setPracticalMonotonicity(practicalMonotonicity);
-            config.setMetric(metric);
+            final AnytimeSearch.ConfigurationFactory factory = new AnytimeSearch.ConfigurationFactory() {
+                @Override
+                public ARXConfiguration create() {
+                    final ARXConfiguration config = ARXConfiguration.create();
+                    config.setMaxOutliers(supression);
+                    config.setPracticalMonotonicity(practicalMonotonicity);
+                    config.setMetric(createMetric(mValue));
+
+                    // set criteria
+                    for (final PrivacyCriterion criterion : criteria) {
+                        config.addCriterion(criterion);
+                    }
+                    return config;
+                }
+            };
 
-            // set criteria
-            for (final PrivacyCriterion criterion : criteria) {
-                config.addCriterion(criterion);
+            if (worker != null) { // search the ranges assigned by the coordinator
+                worker.serve(data, quasiIdentifier.toArray(new String[quasiIdentifier.size()]), factory);
+                return 0;
             }
 
             if (output != null) {
                 System.out.println("Using the following criteria for anonymization: " + criteria);
             }
 
-            final ARXAnonymizer anonymizer = new ARXAnonymizer();
-            final ARXResult result = anonymizer.anonymize(data, config);
-
-            if (output != null) { // save to file
-                result.getOutput().save(output, separator);
-            } else { // output on console
-                final Iterator<String[]> transformed = result.getOutput().iterator();
-                while (transformed.hasNext()) {
-                    final String[] line = transformed.next();
-                    final StringBuilder outline = new StringBuilder();
-                    for (int i = 0; i < line.length; i++) {
-                        outline.append(line[i]);
-                        if (i < (line.length - 1)) {
-                            outline.append(separator);
+            // update the estimated memory, now that the data has been loaded
+            if (admission != null) {
+                final long estimate = AdmissionController.estimate(data.getHandle().getNumRows(),
+                                                                   data.getHandle().getNumColumns(),
+                                                                   quasiIdentifier,
+                                                                   hierarchies);
+                admission.update(reserved, estimate);
+                reserved = estimate;
+            }
+
+            final CountDownLatch finished = new CountDownLatch(1);
+            final AtomicReference<Thread> hook = new AtomicReference<Thread>();
+            try {
+                final ProgressMonitor searchMonitor = monitor;
+                final ARXResult result = search(new Callable<ARXResult>() {
+                    @Override
+                    public ARXResult call() throws Exception {
+                        if (options.has(workersOption)) {
+                            if (options.has(timeLimitOption) || options.has(maxNodesOption) || options.has(nodeCacheOption) ||
+                                options.has(checkpointOption) || options.has(resumeOption)) {
+                                throw new IllegalArgumentException("distributed search cannot be combined with the anytime search");
+                            }
+                            return anonymizeDistributed(args, plan, options.valueOf(workersOption), data, quasiIdentifier, hierarchies, factory);
+                        } else if (options.has(timeLimitOption) || options.has(maxNodesOption)) {
+                            final SearchBudget budget = new SearchBudget(options.valueOf(timeLimitOption), options.valueOf(maxNodesOption));
+                            hook.set(cancelOnShutdown(budget, finished));
+                            final NodeEvaluator evaluator = options.has(nodeCacheOption) ? createEvaluator(data,
+                                                                                                            quasiIdentifier,
+                                                                                                            hierarchies,
+                                                                                                            sensitiveAttributes,
+                                                                                                            plan,
+                                                                                                            options.valueOf(nodeCacheOption)) : null;
+                            final File checkpointFile = options.has(checkpointOption) ? options.valueOf(checkpointOption) : options.valueOf(resumeOption);
+                            final SearchCheckpoint checkpoint = checkpointFile == null ? null
+                                    : new SearchCheckpoint(checkpointFile,
+                                                           SearchCheckpoint.fingerprint(data.getHandle(),
+                                                                                        quasiIdentifier.toArray(new String[quasiIdentifier.size()]),
+                                                                                        hierarchies,
+                                                                                        plan.getCriteria() + "/" + plan.getSuppression() + "/" + plan.getMetric() + "/" + practicalMonotonicity),
+                                                           options.valueOf(checkpointIntervalOption));
+                            return anonymizeAnytime(data,
+                                                    quasiIdentifier,
+                                                    hierarchies,
+                                                    factory,
+                                                    budget,
+                                                    practicalMonotonicity,
+                                                    evaluator,
+                                                    checkpoint,
+                                                    options.valueOf(resumeOption),
+                                                    searchMonitor);
+                        } else {
+                            if (options.has(nodeCacheOption)) {
+                                throw new IllegalArgumentException("the node cache is only used by the anytime search, i.e. with --time-limit or --max-nodes");
+                            }
+                            if (options.has(checkpointOption) || options.has(resumeOption)) {
+                                throw new IllegalArgumentException("checkpoints are only written by the anytime search, i.e. with --time-limit or --max-nodes");
+                            }
+                            final ARXAnonymizer anonymizer = new ARXAnonymizer();
+                            if (searchMonitor != null) {
+                                anonymizer.setListener(searchMonitor);
+                            }
+                            return anonymizer.anonymize(data, factory.create());
                         }
                     }
-                    // outline.append("\n");
-                    System.out.println(outline);
+                });
+                if ((monitor != null) && (result != null) && (result.getGlobalOptimum() != null)) {
+                    monitor.setBestScore(AnytimeSearch.getInformationLoss(result.getGlobalOptimum()));
+                }
+
+                if (options.has(partitionsOption) || options.has(partitionByOption)) { // save to partitioned files
+                    if (output == null) {
+                        throw new IllegalArgumentException("partitioned output requires an output file");
+                    }
+                    final int partitions = options.has(partitionsOption) ? options.valueOf(partitionsOption) : Runtime.getRuntime().availableProcessors();
+                    new PartitionedOutput(output,
+                                          format,
+                                          options.valueOf(outputFormatOption),
+                                          partitions,
+                                          options.valueOf(partitionByOption),
+                                          monitor).write(result.getOutput().iterator());
+                } else if (output != null) { // save to file
+                    final OutputStream out = new FileOutputStream(output);
+                    try {
+                        format.write(result.getOutput().iterator(), out, Runtime.getRuntime().availableProcessors(), monitor);
+                    } finally {
+                        out.close();
+                    }
+                } else { // output on console
+                    format.write(result.getOutput().iterator(), System.out, Runtime.getRuntime().availableProcessors(), monitor);
+                }
+
+                if (options.has(reportOption)) { // write statistics
+                    final ARXNode optimum = result.getGlobalOptimum();
+                    if (optimum == null) {
+                        throw new IllegalArgumentException("no solution has been found, statistics cannot be reported");
+                    }
+                    final String[] attributes = quasiIdentifier.toArray(new String[quasiIdentifier.size()]);
+                    final int[] levels = new int[attributes.length];
+                    for (int i = 0; i < attributes.length; i++) {
+                        levels[i] = optimum.getGeneralization(attributes[i]);
+                    }
+                    final OutputStatistics statistics = new OutputStatistics(data.getHandle(),
+                                                                             result.getOutput(),
+                                                                             attributes,
+                                                                             levels,
+                                                                             hierarchies,
+                                                                             Runtime.getRuntime().availableProcessors());
+                    new StatisticsReport(statistics, mValue, criteria.toString()).write(options.valueOf(reportOption));
+                }
+
+                if (options.has(compareMetricsOption)) { // compare metrics, which replaces the output buffer
+                    final List<Metric> metrics = parseMetrics(options.valueOf(compareMetricsOption));
+                    final MetricComparison comparison = new MetricComparison(result,
+                                                                             data.getHandle(),
+                                                                             quasiIdentifier.toArray(new String[quasiIdentifier.size()]),
+                                                                             hierarchies,
+                                                                             metrics,
+                                                                             supression,
+                                                                             Runtime.getRuntime().availableProcessors());
+                    comparison.print(output != null ? System.out : System.err);
+                }
+            } finally {
+                finished.countDown();
+                if (hook.get() != null) {
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(hook.get());
+                    } catch (final IllegalStateException e) {
+                        // The process is shutting down
+                    }
                 }
             }
 
         } catch (final Exception e) {
+            failure = e;
+        } finally {
+            if (reserved >= 0) {
+                admission.release(reserved);
+            }
+            job.close();
+            if (monitor != null) {
+                monitor.stop();
+            }
+        }
+
+        if (failure != null) {
             try {
-                System.err.println(e.getLocalizedMessage());
+                System.err.println(failure.getLocalizedMessage());
                 parser.printHelpOn(System.out);
-                System.exit(1);
             } catch (final IOException e1) {
                 e1.printStackTrace();
-                System.exit(1);
             }
+            return 1;
         }
-
+        return 0;
     }
 }
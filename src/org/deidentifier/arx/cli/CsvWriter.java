@@ -0,0 +1,125 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes rows as defined in RFC 4180. Values which contain the separator, quotes or line breaks are enclosed in quotes
+ * and quotes are doubled. As anonymized data contains few distinct values, the encoded form of each value is cached,
+ * so that every distinct value is only checked and escaped once. Lines are terminated with a line feed. This class
+ * is thread-safe.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class CsvWriter {
+
+    /** The maximal number of cached values. */
+    private static final int                  MAX_CACHED = 1 << 16;
+
+    /** The encoded values. */
+    private final ConcurrentMap<String, String> cache    = new ConcurrentHashMap<String, String>();
+
+    /** The separator. */
+    private final char                        separator;
+
+    /**
+     * Creates a new writer.
+     *
+     * @param separator the separator
+     */
+    public CsvWriter(final char separator) {
+        if ((separator == '"') || (separator == '\n') || (separator == '\r')) {
+            throw new IllegalArgumentException("separator cannot be used in CSV: " + separator);
+        }
+        this.separator = separator;
+    }
+
+    /**
+     * Appends the given row as a line.
+     *
+     * @param builder the builder
+     * @param row the row
+     */
+    public void appendLine(final StringBuilder builder, final String[] row) {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(encode(row[i]));
+        }
+        builder.append('\n');
+    }
+
+    /**
+     * Returns the encoded form of the given value.
+     *
+     * @param value the value, null is encoded as an empty field
+     * @return the encoded value
+     */
+    public String encode(final String value) {
+        if (value == null) {
+            return "";
+        }
+        String encoded = cache.get(value);
+        if (encoded == null) {
+            encoded = needsQuoting(value) ? quote(value) : value;
+            if (cache.size() < MAX_CACHED) {
+                cache.putIfAbsent(value, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns whether the given value needs to be quoted.
+     *
+     * @param value the value
+     * @return true, if quoting is required
+     */
+    private boolean needsQuoting(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if ((c == separator) || (c == '"') || (c == '\n') || (c == '\r')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Quotes the given value.
+     *
+     * @param value the value
+     * @return the quoted value
+     */
+    private String quote(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 8);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                builder.append('"');
+            }
+            builder.append(c);
+        }
+        return builder.append('"').toString();
+    }
+}
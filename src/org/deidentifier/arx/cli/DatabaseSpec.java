@@ -0,0 +1,177 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * The connection information given in the database option.
+ * Syntax: [TYPE=[MYSQL|POSTGRESQL|SQLLITE],URL=value,PORT=value,USER=value,PASSWORD=value,DATABASE=value,TABLE=value]
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class DatabaseSpec {
+
+    /** The JDBC url. */
+    private final String url;
+
+    /** The user. */
+    private final String user;
+
+    /** The password. */
+    private final String password;
+
+    /** The table. */
+    private final String table;
+
+    /**
+     * Parses the given database string and loads the required JDBC driver.
+     *
+     * @param database the database
+     */
+    public DatabaseSpec(final String database) {
+
+        Map<String, String> kvMap = new HashMap<String, String>();
+        StringTokenizer st = new StringTokenizer(database, "=,");
+        while (st.hasMoreTokens()) {
+            String key = st.nextToken().toUpperCase();
+            String value = st.nextToken();
+            kvMap.put(key, value);
+        }
+
+        String dbType = kvMap.get("TYPE");
+        String url = kvMap.get("URL");
+        String port = kvMap.get("PORT");
+        String username = kvMap.get("USER");
+        String password = kvMap.get("PASSWORD");
+        String db = kvMap.get("DATABASE");
+        String table = kvMap.get("TABLE");
+
+        if (dbType == null || dbType.isEmpty() || url == null || url.isEmpty() || port == null || port.isEmpty() || username == null || username.isEmpty() || password == null || password.isEmpty()
+            || db == null || db.isEmpty() || table == null || table.isEmpty()) {
+            throw new IllegalArgumentException("database string is incomplete: " + database);
+        }
+
+        String urlString = "";
+        // Load JDBC classes and build url string
+        try {
+
+            if (dbType.equalsIgnoreCase("SQLLITE")) {
+                DriverLoader.load("org.sqlite.JDBC");
+                urlString = "jdbc:sqlite:" + url;
+            } else if (dbType.equalsIgnoreCase("MYSQL")) {
+                DriverLoader.load("com.mysql.jdbc.Driver");
+                urlString = "jdbc:mysql://" + url + ":" + port + "/" + db;
+            } else if (dbType.equalsIgnoreCase("POSTGRESQL")) {
+                DriverLoader.load("org.postgresql.Driver");
+                urlString = "jdbc:postgresql://" + url + ":" + port + "/" + db;
+            }
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("No JDBC driver for selected connection type");
+        }
+
+        this.url = urlString;
+        this.user = username;
+        this.password = password;
+        this.table = table;
+    }
+
+    /**
+     * Opens a connection.
+     *
+     * @return the connection
+     * @throws SQLException
+     */
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /**
+     * Returns the password.
+     *
+     * @return the password
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Returns the number of rows and columns of the table.
+     *
+     * @return the number of rows and the number of columns
+     * @throws SQLException
+     */
+    public long[] getSize() throws SQLException {
+        final Connection connection = connect();
+        try {
+            long columns = 0;
+            final ResultSet rs = connection.getMetaData().getColumns(null, null, table, null);
+            while (rs.next()) {
+                columns++;
+            }
+            rs.close();
+            final String quote = connection.getMetaData().getIdentifierQuoteString().trim();
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet count = statement.executeQuery("SELECT COUNT(*) FROM " + quote +
+                                                               (quote.isEmpty() ? table : table.replace(quote, quote + quote)) + quote);
+                count.next();
+                return new long[] { count.getLong(1), columns };
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the table.
+     *
+     * @return the table
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the JDBC url.
+     *
+     * @return the url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the user.
+     *
+     * @return the user
+     */
+    public String getUser() {
+        return user;
+    }
+}
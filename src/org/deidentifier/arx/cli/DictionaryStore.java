@@ -0,0 +1,386 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+
+/**
+ * A process-wide store which deduplicates the strings of hierarchies and column dictionaries across jobs. Every
+ * job opens a {@link Job}, through which it loads hierarchies and interns data values. Hierarchies loaded from the
+ * same file are shared between jobs. All strings and hierarchies are reference-counted and evicted as soon as the
+ * last job which uses them has been closed. As ARX deduplicates the values of each data object itself, the store
+ * only pays off when several jobs share the process. Jobs which run alone bypass it.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class DictionaryStore {
+
+    /**
+     * A job-scoped view on the store, or a job which bypasses it. Not thread-safe.
+     */
+    public class Job {
+
+        /** Whether the job uses the store. */
+        private final boolean                shared;
+
+        /** The strings pinned by this job. */
+        private final Lease                  lease       = new Lease();
+
+        /** The hierarchies used by this job. */
+        private final List<HierarchyEntry>   hierarchies = new ArrayList<HierarchyEntry>();
+
+        /** Whether the job has been closed. */
+        private boolean                      closed;
+
+        /**
+         * Creates a new job.
+         *
+         * @param shared whether the job uses the store
+         */
+        private Job(final boolean shared) {
+            this.shared = shared;
+        }
+
+        /**
+         * Releases all strings and hierarchies used by this job.
+         */
+        public void close() {
+            if (!closed) {
+                closed = true;
+                lease.release();
+                for (final HierarchyEntry entry : hierarchies) {
+                    releaseHierarchy(entry);
+                }
+                hierarchies.clear();
+            }
+        }
+
+        /**
+         * Returns the hierarchy stored in the given file. If the file has already been loaded by this or another
+         * job, and has not been modified since, the shared instance is returned.
+         *
+         * @param file the file
+         * @param separator the separator
+         * @return the hierarchy
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        public Hierarchy getHierarchy(final File file, final char separator) throws IOException {
+            if (!shared) {
+                return Hierarchy.create(file.getPath(), separator);
+            }
+            final HierarchyEntry entry = acquireHierarchy(file, separator);
+            hierarchies.add(entry);
+            return entry.hierarchy;
+        }
+
+        /**
+         * Returns the canonical instance of the given string.
+         *
+         * @param value the value
+         * @return the string
+         */
+        public String intern(final String value) {
+            return shared ? lease.intern(value) : value;
+        }
+
+        /**
+         * Returns an iterator which interns all values of the rows returned by the given iterator.
+         *
+         * @param iterator the iterator
+         * @return the iterator
+         */
+        public Iterator<String[]> intern(final Iterator<String[]> iterator) {
+            if (!shared) {
+                return iterator;
+            }
+            return new Iterator<String[]>() {
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public String[] next() {
+                    final String[] row = iterator.next();
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = lease.intern(row[i]);
+                    }
+                    return row;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * Returns whether the job uses the store.
+         *
+         * @return true, if values are interned and hierarchies are shared
+         */
+        public boolean isShared() {
+            return shared;
+        }
+    }
+
+    /**
+     * A reference-counted string.
+     */
+    private static class Entry {
+
+        /** The canonical instance. */
+        private final String        value;
+
+        /** The number of references, zero once the entry has been evicted. */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * Creates a new entry.
+         *
+         * @param value the value
+         */
+        private Entry(final String value) {
+            this.value = value;
+        }
+
+        /**
+         * Adds a reference, unless the entry has already been evicted.
+         *
+         * @return true, if successful
+         */
+        private boolean acquire() {
+            while (true) {
+                final int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A loaded hierarchy.
+     */
+    private class HierarchyEntry {
+
+        /** The key. */
+        private final String    key;
+
+        /** The hierarchy. */
+        private final Hierarchy hierarchy;
+
+        /** The strings pinned by the hierarchy. */
+        private final Lease     lease = new Lease();
+
+        /** The number of jobs using the hierarchy. */
+        private int             references;
+
+        /**
+         * Loads the hierarchy.
+         *
+         * @param key the key
+         * @param file the file
+         * @param separator the separator
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private HierarchyEntry(final String key, final File file, final char separator) throws IOException {
+            this.key = key;
+            final String[][] array = Hierarchy.create(file.getPath(), separator).getHierarchy();
+            for (final String[] row : array) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = lease.intern(row[i]);
+                }
+            }
+            this.hierarchy = Hierarchy.create(array);
+        }
+    }
+
+    /**
+     * The set of strings pinned by a job or a hierarchy.
+     */
+    private class Lease {
+
+        /** The entries, keyed by value. */
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        /**
+         * Returns the canonical instance of the given string and pins it.
+         *
+         * @param value the value
+         * @return the string
+         */
+        private String intern(final String value) {
+            if (value == null) {
+                return null;
+            }
+            Entry entry = entries.get(value);
+            if (entry == null) {
+                entry = acquireString(value);
+                entries.put(entry.value, entry);
+            }
+            return entry.value;
+        }
+
+        /**
+         * Releases all pinned strings.
+         */
+        private void release() {
+            for (final Entry entry : entries.values()) {
+                releaseString(entry);
+            }
+            entries.clear();
+        }
+    }
+
+    /** The instance. */
+    private static final DictionaryStore INSTANCE = new DictionaryStore();
+
+    /**
+     * Returns the process-wide instance.
+     *
+     * @return the instance
+     */
+    public static DictionaryStore getInstance() {
+        return INSTANCE;
+    }
+
+    /** The strings. */
+    private final ConcurrentHashMap<String, Entry> strings     = new ConcurrentHashMap<String, Entry>();
+
+    /** The hierarchies. */
+    private final Map<String, HierarchyEntry>      hierarchies = new HashMap<String, HierarchyEntry>();
+
+    /**
+     * Creates a new store.
+     */
+    private DictionaryStore() {
+        // Empty by design
+    }
+
+    /**
+     * Returns the number of hierarchies currently held.
+     *
+     * @return the number of hierarchies
+     */
+    public synchronized int getNumHierarchies() {
+        return hierarchies.size();
+    }
+
+    /**
+     * Returns the number of distinct strings currently held.
+     *
+     * @return the number of strings
+     */
+    public int getNumStrings() {
+        return strings.size();
+    }
+
+    /**
+     * Opens a new job.
+     *
+     * @param shared whether the job uses the store, which should only be the case if several jobs share the process
+     * @return the job
+     */
+    public Job open(final boolean shared) {
+        return new Job(shared);
+    }
+
+    /**
+     * Returns the entry for the given hierarchy file, loading it if required.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @return the hierarchy entry
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private synchronized HierarchyEntry acquireHierarchy(final File file, final char separator) throws IOException {
+        final File canonical = file.getCanonicalFile();
+        final String key = canonical.getPath() + '\u0000' + separator + '\u0000' + canonical.lastModified() + '\u0000' + canonical.length();
+        HierarchyEntry entry = hierarchies.get(key);
+        if (entry == null) {
+            entry = new HierarchyEntry(key, canonical, separator);
+            hierarchies.put(key, entry);
+        }
+        entry.references++;
+        return entry;
+    }
+
+    /**
+     * Returns a pinned entry for the given string.
+     *
+     * @param value the value
+     * @return the entry
+     */
+    private Entry acquireString(final String value) {
+        while (true) {
+            final Entry entry = strings.get(value);
+            if (entry == null) {
+                final Entry created = new Entry(value);
+                if (strings.putIfAbsent(value, created) == null) {
+                    return created;
+                }
+            } else if (entry.acquire()) {
+                return entry;
+            } else {
+                // The entry is being evicted
+                strings.remove(value, entry);
+            }
+        }
+    }
+
+    /**
+     * Releases a hierarchy entry.
+     *
+     * @param entry the entry
+     */
+    private synchronized void releaseHierarchy(final HierarchyEntry entry) {
+        entry.references--;
+        if (entry.references == 0) {
+            hierarchies.remove(entry.key);
+            entry.lease.release();
+        }
+    }
+
+    /**
+     * Releases a string entry.
+     *
+     * @param entry the entry
+     */
+    private void releaseString(final Entry entry) {
+        if (entry.references.decrementAndGet() == 0) {
+            strings.remove(entry.value, entry);
+        }
+    }
+}
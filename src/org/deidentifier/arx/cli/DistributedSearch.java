@@ -0,0 +1,638 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.deidentifier.arx.ARXAnonymizer;
+import org.deidentifier.arx.ARXLattice.ARXNode;
+import org.deidentifier.arx.ARXResult;
+import org.deidentifier.arx.Data;
+
+/**
+ * Searches the lattice with several local worker processes. The lattice is partitioned into contiguous ranges of the
+ * generalization levels of the quasi-identifier with the highest hierarchy. Each worker is started with the arguments
+ * of the coordinator, receives the compiled job plan over a socket, loads the data itself, and searches the
+ * sub-lattices of the ranges it is assigned for their optimum. Each worker authenticates with a random token of its
+ * own, which is passed to it in its environment, and all messages are written field by field, so that no objects are
+ * deserialized from the socket. While waiting for a worker, the coordinator periodically checks whether its process
+ * has exited, so that a worker which fails without closing its connection does not block the search. The coordinator
+ * selects the optimum with the lowest
+ * information loss, preferring lower ranges in case of ties, so that the result does not depend on the scheduling of
+ * the workers, and anonymizes the data with this transformation.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class DistributedSearch {
+
+    /**
+     * A range of generalization levels, which is searched by a worker.
+     */
+    private static class Task {
+
+        /**
+         * Reads a task.
+         *
+         * @param in the input
+         * @return the task
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private static Task read(final DataInput in) throws IOException {
+            return new Task(in.readInt(), in.readUTF(), in.readInt(), in.readInt());
+        }
+
+        /** The index of the task. */
+        private final int         index;
+
+        /** The partitioning attribute. */
+        private final String      attribute;
+
+        /** The minimal level. */
+        private final int         min;
+
+        /** The maximal level. */
+        private final int         max;
+
+        /**
+         * Creates a new task.
+         *
+         * @param index the index
+         * @param attribute the attribute
+         * @param min the minimal level
+         * @param max the maximal level
+         */
+        private Task(final int index, final String attribute, final int min, final int max) {
+            this.index = index;
+            this.attribute = attribute;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Writes this task.
+         *
+         * @param out the output
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void write(final DataOutput out) throws IOException {
+            out.writeInt(index);
+            out.writeUTF(attribute);
+            out.writeInt(min);
+            out.writeInt(max);
+        }
+    }
+
+    /**
+     * The optimum of a range, as found by a worker.
+     */
+    private static class Outcome {
+
+        /**
+         * Reads an outcome.
+         *
+         * @param in the input
+         * @return the outcome
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private static Outcome read(final DataInput in) throws IOException {
+            final int index = in.readInt();
+            int[] levels = null;
+            final int length = in.readInt();
+            if (length >= 0) {
+                levels = new int[length];
+                for (int i = 0; i < length; i++) {
+                    levels[i] = in.readInt();
+                }
+            }
+            final double loss = in.readDouble();
+            final String error = in.readBoolean() ? in.readUTF() : null;
+            return new Outcome(index, levels, loss, error);
+        }
+
+        /** The index of the task. */
+        private final int         index;
+
+        /** The generalization levels of the optimum, or null if there is none. */
+        private final int[]       levels;
+
+        /** The information loss of the optimum. */
+        private final double      loss;
+
+        /** The error, or null. */
+        private final String      error;
+
+        /**
+         * Creates a new outcome.
+         *
+         * @param index the index
+         * @param levels the levels, or null
+         * @param loss the loss
+         * @param error the error, or null
+         */
+        private Outcome(final int index, final int[] levels, final double loss, final String error) {
+            this.index = index;
+            this.levels = levels;
+            this.loss = loss;
+            this.error = error;
+        }
+
+        /**
+         * Writes this outcome.
+         *
+         * @param out the output
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void write(final DataOutput out) throws IOException {
+            out.writeInt(index);
+            out.writeInt(levels == null ? -1 : levels.length);
+            if (levels != null) {
+                for (final int level : levels) {
+                    out.writeInt(level);
+                }
+            }
+            out.writeDouble(loss);
+            out.writeBoolean(error != null);
+            if (error != null) {
+                out.writeUTF(error);
+            }
+        }
+    }
+
+    /**
+     * The side of a worker process.
+     */
+    public static class Worker {
+
+        /** The socket. */
+        private final Socket           socket;
+
+        /** The input. */
+        private final DataInputStream  in;
+
+        /** The output. */
+        private final DataOutputStream out;
+
+        /**
+         * Connects to the coordinator and authenticates with the token in the environment.
+         *
+         * @param port the local port of the coordinator
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        public Worker(final int port) throws IOException {
+            final String token = System.getenv(TOKEN_VARIABLE);
+            if (token == null) {
+                throw new IllegalArgumentException("workers can only be started by a coordinator");
+            }
+            this.socket = new Socket(InetAddress.getByName(null), port);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.out.writeUTF(token);
+            this.out.flush();
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * Returns the job plan sent by the coordinator.
+         *
+         * @return the plan
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        public JobPlan getPlan() throws IOException {
+            return JobPlan.read(in);
+        }
+
+        /**
+         * Searches the ranges sent by the coordinator until it closes the connection.
+         *
+         * @param data the data
+         * @param attributes the quasi-identifiers
+         * @param factory the configuration factory
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        public void serve(final Data data, final String[] attributes, final AnytimeSearch.ConfigurationFactory factory) throws IOException {
+            try {
+                while (true) {
+                    final Task task;
+                    try {
+                        task = Task.read(in);
+                    } catch (final EOFException e) {
+                        return;
+                    }
+                    Outcome outcome;
+                    try {
+                        data.getDefinition().setMinimumGeneralization(task.attribute, task.min);
+                        data.getDefinition().setMaximumGeneralization(task.attribute, task.max);
+                        final ARXResult result = new ARXAnonymizer().anonymize(data, factory.create());
+                        final ARXNode optimum = result.getGlobalOptimum();
+                        if (optimum == null) {
+                            outcome = new Outcome(task.index, null, 0d, null);
+                        } else {
+                            final int[] levels = new int[attributes.length];
+                            for (int i = 0; i < attributes.length; i++) {
+                                levels[i] = optimum.getGeneralization(attributes[i]);
+                            }
+                            outcome = new Outcome(task.index, levels, AnytimeSearch.getInformationLoss(optimum), null);
+                        }
+                        data.getHandle().release();
+                    } catch (final Exception e) {
+                        outcome = new Outcome(task.index, null, 0d, String.valueOf(e.getMessage()));
+                    }
+                    outcome.write(out);
+                    out.flush();
+                }
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    /** The time to wait for workers to connect, in milliseconds. */
+    private static final int         CONNECT_TIMEOUT = 120000;
+
+    /** The time to wait for a connected worker to send its token, in milliseconds. */
+    private static final int         TOKEN_TIMEOUT   = 10000;
+
+    /** The interval in which the processes of workers are checked while waiting for them, in milliseconds. */
+    private static final int         POLL_INTERVAL   = 1000;
+
+    /** The environment variable which passes the token to workers. */
+    private static final String      TOKEN_VARIABLE  = "ARX_COORDINATOR_TOKEN";
+
+    /** The options which are not passed to workers, with their arguments. */
+    private static final Set<String> LOCAL_OPTIONS   = new HashSet<String>(Arrays.asList("wk",
+                                                                                         "workers",
+                                                                                         "wp",
+                                                                                         "write-plan",
+                                                                                         "pr",
+                                                                                         "progress",
+                                                                                         "pf",
+                                                                                         "progress-file",
+                                                                                         "pp",
+                                                                                         "progress-port"));
+
+    /** The arguments of the coordinator. */
+    private final String[] args;
+
+    /** The job plan. */
+    private final JobPlan  plan;
+
+    /** The number of workers. */
+    private final int      workers;
+
+    /** The token, from which the tokens of the workers are derived. */
+    private final String   token;
+
+    /** The optimum found. */
+    private int[]          best;
+
+    /** The information loss of the optimum. */
+    private double         bestLoss;
+
+    /**
+     * Creates a new search.
+     *
+     * @param args the arguments of the coordinator
+     * @param plan the job plan
+     * @param workers the number of workers
+     */
+    public DistributedSearch(final String[] args, final JobPlan plan, final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("number of workers must be positive: " + workers);
+        }
+        this.args = args;
+        this.plan = plan;
+        this.workers = workers;
+        this.token = new BigInteger(128, new SecureRandom()).toString(16);
+    }
+
+    /**
+     * Returns a human-readable summary of the search.
+     *
+     * @param attributes the quasi-identifiers
+     * @return the summary
+     */
+    public String getSummary(final String[] attributes) {
+        if (best == null) {
+            return "Distributed search with " + workers + " workers found no privacy-preserving transformation";
+        }
+        return "Distributed search with " + workers + " workers found " + Arrays.toString(attributes) + '=' + Arrays.toString(best) +
+               ", information loss: " + bestLoss;
+    }
+
+    /**
+     * Performs the search and returns the result for the optimum, or null if there is none.
+     *
+     * @param data the data
+     * @param attributes the quasi-identifiers
+     * @param heights the number of levels of their hierarchies
+     * @param factory the configuration factory
+     * @return the result
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public ARXResult search(final Data data, final String[] attributes, final int[] heights, final AnytimeSearch.ConfigurationFactory factory) throws IOException {
+
+        // Partition the highest hierarchy
+        int dimension = 0;
+        for (int i = 1; i < heights.length; i++) {
+            if (heights[i] > heights[dimension]) {
+                dimension = i;
+            }
+        }
+        final ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<Task>();
+        final int ranges = Math.min(workers, heights[dimension]);
+        for (int i = 0; i < ranges; i++) {
+            tasks.add(new Task(i, attributes[dimension], (heights[dimension] * i) / ranges, ((heights[dimension] * (i + 1)) / ranges) - 1));
+        }
+        final Outcome[] outcomes = new Outcome[ranges];
+
+        // Start workers and dispatch
+        final ServerSocket server = new ServerSocket(0, ranges, InetAddress.getByName(null));
+        final List<Process> processes = new ArrayList<Process>();
+        final Socket[] sockets = new Socket[ranges];
+        final List<Thread> threads = new ArrayList<Thread>();
+        final IOException[] failure = new IOException[1];
+        try {
+            for (int i = 0; i < ranges; i++) {
+                processes.add(launch(server.getLocalPort(), i));
+            }
+            for (int i = 0; i < ranges; i++) {
+                final int worker = accept(server, processes, sockets);
+                final Thread thread = new Thread("arx-coordinator-" + worker) {
+                    @Override
+                    public void run() {
+                        try {
+                            dispatch(sockets[worker], processes.get(worker), tasks, outcomes);
+                        } catch (final IOException e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                };
+                thread.start();
+                threads.add(thread);
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for workers", e);
+        } finally {
+            server.close();
+            for (final Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+            for (final Process process : processes) {
+                process.destroy();
+            }
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        // Merge
+        for (final Outcome outcome : outcomes) {
+            if (outcome == null) {
+                throw new IOException("a worker did not report its result");
+            } else if (outcome.error != null) {
+                throw new IOException("worker failed: " + outcome.error);
+            } else if ((outcome.levels != null) && ((best == null) || (outcome.loss < bestLoss))) {
+                best = outcome.levels;
+                bestLoss = outcome.loss;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        for (int i = 0; i < attributes.length; i++) {
+            data.getDefinition().setMinimumGeneralization(attributes[i], best[i]);
+            data.getDefinition().setMaximumGeneralization(attributes[i], best[i]);
+        }
+        return new ARXAnonymizer().anonymize(data, factory.create());
+    }
+
+    /**
+     * Accepts the next worker, which has authenticated with its token, and returns its index. Other connections are
+     * closed.
+     *
+     * @param server the server socket
+     * @param processes the processes of the workers
+     * @param sockets the sockets of the workers which have connected
+     * @return the index of the worker
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private int accept(final ServerSocket server, final List<Process> processes, final Socket[] sockets) throws IOException {
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("workers did not connect in time");
+            }
+            server.setSoTimeout((int) Math.min(remaining, POLL_INTERVAL));
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (final SocketTimeoutException e) {
+                for (int i = 0; i < sockets.length; i++) {
+                    if (sockets[i] == null) {
+                        checkRunning(processes.get(i));
+                    }
+                }
+                continue;
+            }
+            try {
+                socket.setSoTimeout(TOKEN_TIMEOUT);
+                final byte[] received = new DataInputStream(socket.getInputStream()).readUTF().getBytes("UTF-8");
+                for (int i = 0; i < sockets.length; i++) {
+                    if ((sockets[i] == null) && MessageDigest.isEqual(received, getToken(i).getBytes("UTF-8"))) {
+                        socket.setSoTimeout(POLL_INTERVAL);
+                        sockets[i] = socket;
+                        return i;
+                    }
+                }
+            } catch (final IOException e) {
+                // Not a worker
+            }
+            socket.close();
+        }
+    }
+
+    /**
+     * Waits until a worker has started to send its outcome. The socket must have a timeout, after which the process
+     * of the worker is checked.
+     *
+     * @param in the input
+     * @param process the process of the worker
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void await(final BufferedInputStream in, final Process process) throws IOException {
+        while (true) {
+            in.mark(1);
+            try {
+                if (in.read() == -1) {
+                    throw new EOFException("worker closed the connection");
+                }
+                in.reset();
+                return;
+            } catch (final SocketTimeoutException e) {
+                checkRunning(process);
+            }
+        }
+    }
+
+    /**
+     * Throws an exception if the process of a worker has exited.
+     *
+     * @param process the process
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void checkRunning(final Process process) throws IOException {
+        final int exitValue;
+        try {
+            exitValue = process.exitValue();
+        } catch (final IllegalThreadStateException e) {
+            return; // Still running
+        }
+        throw new IOException("worker exited with code " + exitValue);
+    }
+
+    /**
+     * Sends the plan and tasks to a worker, until there are no more tasks.
+     *
+     * @param socket the socket
+     * @param process the process of the worker
+     * @param tasks the tasks
+     * @param outcomes the outcomes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void dispatch(final Socket socket, final Process process, final ConcurrentLinkedQueue<Task> tasks, final Outcome[] outcomes) throws IOException {
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            plan.write(out);
+            out.flush();
+            final BufferedInputStream buffer = new BufferedInputStream(socket.getInputStream());
+            final DataInputStream in = new DataInputStream(buffer);
+            Task task;
+            while ((task = tasks.poll()) != null) {
+                task.write(out);
+                out.flush();
+                await(buffer, process);
+                final Outcome outcome = Outcome.read(in);
+                synchronized (outcomes) {
+                    outcomes[outcome.index] = outcome;
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Returns the token of a worker.
+     *
+     * @param index the index of the worker
+     * @return the token
+     */
+    private String getToken(final int index) {
+        return token + '-' + index;
+    }
+
+    /**
+     * Launches a worker process with the arguments of the coordinator.
+     *
+     * @param port the port of the coordinator
+     * @param index the index of the worker
+     * @return the process
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private Process launch(final int port, final int index) throws IOException {
+        final List<String> command = new ArrayList<String>();
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            // A native image starts another instance of its executable
+            final File executable = new File("/proc/self/exe");
+            if (!executable.exists()) {
+                throw new IllegalArgumentException("distributed search in a native image is only supported on Linux");
+            }
+            command.add(executable.getCanonicalPath());
+        } else {
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(CommandLineInterface.class.getName());
+        }
+        for (int i = 0; i < args.length; i++) {
+            final String[] option = args[i].replaceFirst("^--?", "").split("=", 2);
+            if (args[i].startsWith("-") && LOCAL_OPTIONS.contains(option[0])) {
+                if ((option.length == 1) && ((i + 1) < args.length) && !args[i + 1].startsWith("-")) {
+                    i++; // Skip the argument, which is optional for --progress
+                }
+            } else {
+                command.add(args[i]);
+            }
+        }
+        command.add("--coordinator");
+        command.add(String.valueOf(port));
+
+        // Forward all output of the worker to stderr, so that it does not interfere with data written to stdout
+        final ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        builder.environment().put(TOKEN_VARIABLE, getToken(index));
+        final Process process = builder.start();
+        final Thread forward = new Thread("arx-worker-output") {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[4096];
+                try {
+                    int read;
+                    while ((read = process.getInputStream().read(buffer)) != -1) {
+                        System.err.write(buffer, 0, read);
+                    }
+                    System.err.flush();
+                } catch (final IOException e) {
+                    // Worker has terminated
+                }
+            }
+        };
+        forward.setDaemon(true);
+        forward.start();
+        return process;
+    }
+}
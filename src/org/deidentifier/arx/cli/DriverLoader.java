@@ -0,0 +1,186 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Loads JDBC drivers on demand. The drivers are not part of the jar of the command line interface, but are shipped in
+ * the directory lib/jdbc next to it, so that they are neither opened nor registered by jobs which do not read from a
+ * database. Drivers are loaded through a separate class loader and are registered with the DriverManager through a
+ * shim, as the DriverManager only uses drivers which are visible to the class loader of the caller. Each driver is
+ * registered once, even if several jobs read from a database. If the directory does not exist, e.g. when the drivers
+ * are on the class path, drivers are loaded as usual.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class DriverLoader {
+
+    /**
+     * A driver of the class path, which delegates to a driver loaded through another class loader.
+     */
+    private static class DriverShim implements Driver {
+
+        /** The driver. */
+        private final Driver driver;
+
+        /**
+         * Creates a new shim.
+         *
+         * @param driver the driver
+         */
+        private DriverShim(final Driver driver) {
+            this.driver = driver;
+        }
+
+        @Override
+        public boolean acceptsURL(final String url) throws SQLException {
+            return driver.acceptsURL(url);
+        }
+
+        @Override
+        public Connection connect(final String url, final Properties info) throws SQLException {
+            return driver.connect(url, info);
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return driver.getMajorVersion();
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return driver.getMinorVersion();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return driver.getParentLogger();
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) throws SQLException {
+            return driver.getPropertyInfo(url, info);
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return driver.jdbcCompliant();
+        }
+    }
+
+    /** The directory of the drivers, relative to the jar of the command line interface. */
+    private static final String      DIRECTORY  = "lib/jdbc";
+
+    /** The class names of the drivers which have been registered through a shim. */
+    private static final Set<String> REGISTERED = new HashSet<String>();
+
+    /** The class loader of the drivers, or null if not yet created. */
+    private static ClassLoader       loader;
+
+    /**
+     * Loads and registers the driver with the given class name.
+     *
+     * @param name the class name
+     * @throws ClassNotFoundException if the driver is not available
+     */
+    public static synchronized void load(final String name) throws ClassNotFoundException {
+        final ClassLoader drivers = getClassLoader();
+        if (drivers == DriverLoader.class.getClassLoader()) {
+            // Registers itself
+            Class.forName(name);
+            return;
+        }
+        if (REGISTERED.contains(name)) {
+            return;
+        }
+        try {
+            final Driver driver = (Driver) Class.forName(name, true, drivers).getDeclaredConstructor().newInstance();
+            DriverManager.registerDriver(new DriverShim(driver));
+            REGISTERED.add(name);
+        } catch (final InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException | SQLException e) {
+            throw new ClassNotFoundException("cannot register JDBC driver " + name, e);
+        }
+    }
+
+    /**
+     * Returns the class loader of the drivers.
+     *
+     * @return the class loader
+     */
+    private static ClassLoader getClassLoader() {
+        if (loader == null) {
+            loader = DriverLoader.class.getClassLoader();
+            final File directory = getDirectory();
+            final File[] jars = directory == null ? null : directory.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(final File file) {
+                    return file.isFile() && file.getName().endsWith(".jar");
+                }
+            });
+            if ((jars != null) && (jars.length > 0)) {
+                final URL[] urls = new URL[jars.length];
+                try {
+                    for (int i = 0; i < jars.length; i++) {
+                        urls[i] = jars[i].toURI().toURL();
+                    }
+                    loader = new URLClassLoader(urls, loader);
+                } catch (final MalformedURLException e) {
+                    // Use the class path
+                }
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Returns the directory of the drivers, or null if the location of the command line interface is unknown.
+     *
+     * @return the directory
+     */
+    private static File getDirectory() {
+        final CodeSource source = DriverLoader.class.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return null;
+        }
+        try {
+            final File location = new File(source.getLocation().toURI());
+            return new File(location.isFile() ? location.getAbsoluteFile().getParentFile() : location, DIRECTORY);
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.nio.charset.Charset;
+
+/**
+ * Computes 64-bit fingerprints of strings, e.g. to match rows by hash or to identify the inputs of caches. Strings
+ * are hashed with FNV-1a over their UTF-8 encoding, so that fingerprints are stable across processes.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class Fingerprint {
+
+    /** The charset. */
+    private static final Charset UTF8             = Charset.forName("UTF-8");
+
+    /** The FNV-1a offset basis. */
+    private static final long    FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /** The FNV-1a prime. */
+    private static final long    FNV_PRIME        = 0x100000001b3L;
+
+    /** The prime used for mixing values into fingerprints. */
+    private static final long    MIX_PRIME        = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Returns a 64-bit hash of the given value.
+     *
+     * @param value the value
+     * @return the hash
+     */
+    public static long hash(final String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (final byte b : value.getBytes(UTF8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes a value into a fingerprint.
+     *
+     * @param fingerprint the fingerprint
+     * @param value the value
+     * @return the fingerprint
+     */
+    public static long mix(final long fingerprint, final String value) {
+        return (fingerprint ^ hash(value)) * MIX_PRIME + 1;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+import org.deidentifier.arx.DataHandle;
+
+/**
+ * Validates hierarchies against the distinct values of the data and compacts them. Rows of values which do not occur
+ * in the data and duplicate rows are removed. Values of the data which are missing in a hierarchy and rows with fewer
+ * levels than others are reported. Optionally, compacted hierarchies are cached in a directory as UTF-8, from which
+ * they are loaded instead of the original file, as long as neither the file nor the values of the data change.
+ * Files are read in the background while the data is loaded, unless the cache contains a compacted version of them.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class HierarchyCompactor {
+
+    /** The maximal number of missing values which are reported. */
+    private static final int                    MAX_REPORTED = 10;
+
+    /** The cache directory, or null. */
+    private final File                          cache;
+
+    /** The stream to which changes are reported, or null. */
+    private final PrintStream                   log;
+
+    /** The hierarchies which are read in the background, by file. */
+    private final Map<File, Future<String[][]>> prefetched   = new HashMap<File, Future<String[][]>>();
+
+    /**
+     * Creates a new compactor.
+     *
+     * @param cache the cache directory, or null
+     * @param log the stream to which changes are reported, or null
+     */
+    public HierarchyCompactor(final File cache, final PrintStream log) {
+        if ((cache != null) && !cache.isDirectory() && !cache.mkdirs()) {
+            throw new IllegalArgumentException("cannot create hierarchy cache directory: " + cache);
+        }
+        this.cache = cache;
+        this.log = log;
+    }
+
+    /**
+     * Cancels reading the hierarchies which have been prefetched but not loaded.
+     */
+    public void cancel() {
+        for (final Future<String[][]> task : prefetched.values()) {
+            task.cancel(true);
+        }
+        prefetched.clear();
+    }
+
+    /**
+     * Compacts the given hierarchy.
+     *
+     * @param attribute the attribute
+     * @param hierarchy the hierarchy
+     * @param values the distinct values of the attribute in the data
+     * @return the compacted hierarchy
+     */
+    public String[][] compact(final String attribute, final String[][] hierarchy, final Set<String> values) {
+
+        // Depth
+        int depth = 0;
+        for (final String[] row : hierarchy) {
+            depth = Math.max(depth, row.length);
+        }
+
+        // Prune and deduplicate
+        final Map<String, String[]> rows = new HashMap<String, String[]>();
+        final List<String[]> result = new ArrayList<String[]>();
+        int unused = 0, duplicates = 0;
+        for (final String[] row : hierarchy) {
+            if (row.length == 0) {
+                continue;
+            }
+            if (!values.contains(row[0])) {
+                unused++;
+                continue;
+            }
+            if (row.length < depth) {
+                throw new IllegalArgumentException("hierarchy for " + attribute + " contains " + row.length + " instead of " + depth +
+                                                   " levels for value: " + row[0]);
+            }
+            final String[] previous = rows.get(row[0]);
+            if (previous != null) {
+                if (!Arrays.equals(previous, row)) {
+                    throw new IllegalArgumentException("hierarchy for " + attribute + " contains conflicting rows for value: " + row[0]);
+                }
+                duplicates++;
+                continue;
+            }
+            rows.put(row[0], row);
+            result.add(row);
+        }
+
+        // Missing values
+        if (rows.size() < values.size()) {
+            final List<String> missing = new ArrayList<String>();
+            for (final String value : values) {
+                if (!rows.containsKey(value)) {
+                    missing.add(value);
+                }
+            }
+            throw new IllegalArgumentException("hierarchy for " + attribute + " does not contain " + missing.size() + " values of the data: " +
+                                               (missing.size() > MAX_REPORTED ? missing.subList(0, MAX_REPORTED) + "..." : missing));
+        }
+
+        if ((log != null) && ((unused + duplicates) > 0)) {
+            log.println("Hierarchy for " + attribute + ": " + hierarchy.length + " rows, removed " + unused + " unused and " + duplicates +
+                        " duplicate rows");
+        }
+        return result.toArray(new String[result.size()][]);
+    }
+
+    /**
+     * Loads the hierarchy for the given attribute from the given file and compacts it, or loads the compacted
+     * hierarchy from the cache.
+     *
+     * @param attribute the attribute
+     * @param file the file
+     * @param separator the separator
+     * @param handle the handle of the data
+     * @param job the job through which hierarchies are loaded
+     * @return the compacted hierarchy
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public Hierarchy load(final String attribute, final File file, final char separator, final DataHandle handle, final DictionaryStore.Job job) throws IOException {
+        final Set<String> values = getDistinctValues(handle, attribute);
+        if (values == null) {
+            // Not part of the data. Jobs which share values also share the hierarchy.
+            if (job.isShared()) {
+                discard(file);
+                return job.getHierarchy(file, separator);
+            }
+            return Hierarchy.create(read(file, separator));
+        }
+
+        // Cached
+        File cached = null;
+        if (cache != null) {
+            cached = new File(cache, getPrefix(file, separator) + Long.toHexString(getKey(values)) + ".csv");
+            if (cached.isFile()) {
+                discard(file);
+                return Hierarchy.create(readCached(cached, separator, job));
+            }
+        }
+
+        // Compact. The original is not shared through the job, so that only the compacted rows are retained.
+        final String[][] hierarchy = compact(attribute, read(file, separator), values);
+        for (final String[] row : hierarchy) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = job.intern(row[i]);
+            }
+        }
+        if (cached != null) {
+            write(hierarchy, cached, separator);
+        }
+        return Hierarchy.create(hierarchy);
+    }
+
+    /**
+     * Starts reading the given file in the background, so that it overlaps with reading the data. The file is not
+     * interned, as it is compacted before it is used. Files of which the cache contains a compacted version for any
+     * data are not read, as the data will probably match.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void prefetch(final File file, final char separator) throws IOException {
+        if (prefetched.containsKey(file) || isCached(file, separator)) {
+            return;
+        }
+        final FutureTask<String[][]> task = new FutureTask<String[][]>(new Callable<String[][]>() {
+            @Override
+            public String[][] call() throws IOException {
+                return Hierarchy.create(file.getPath(), separator).getHierarchy();
+            }
+        });
+        final Thread thread = new Thread(task, "arx-hierarchy-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+        prefetched.put(file, task);
+    }
+
+    /**
+     * Cancels reading the given file in the background, if it has been prefetched.
+     *
+     * @param file the file
+     */
+    private void discard(final File file) {
+        final Future<String[][]> task = prefetched.remove(file);
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the distinct values of the given attribute.
+     *
+     * @param handle the handle
+     * @param attribute the attribute
+     * @return the distinct values, or null if the attribute is not part of the data
+     */
+    private Set<String> getDistinctValues(final DataHandle handle, final String attribute) {
+        for (int column = 0; column < handle.getNumColumns(); column++) {
+            if (handle.getAttributeName(column).equals(attribute)) {
+                final Set<String> values = new HashSet<String>();
+                for (int row = 0; row < handle.getNumRows(); row++) {
+                    values.add(handle.getValue(row, column));
+                }
+                return values;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the part of the key of a cached hierarchy which depends on the values of the data.
+     *
+     * @param values the values
+     * @return the key
+     */
+    private long getKey(final Set<String> values) {
+        final String[] sorted = values.toArray(new String[values.size()]);
+        Arrays.sort(sorted);
+        long key = values.size();
+        for (final String value : sorted) {
+            key = Fingerprint.mix(key, value);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the prefix of the names of cached hierarchies, which depends on the file.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @return the prefix
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private String getPrefix(final File file, final char separator) throws IOException {
+        final long key = Fingerprint.hash(file.getCanonicalPath() + separator + file.lastModified() + separator + file.length());
+        return "hierarchy-" + Long.toHexString(key) + "-";
+    }
+
+    /**
+     * Returns whether the cache contains a compacted version of the given file for any data.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @return true, if cached
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private boolean isCached(final File file, final char separator) throws IOException {
+        final String[] names = cache == null ? null : cache.list();
+        if (names != null) {
+            final String prefix = getPrefix(file, separator);
+            for (final String name : names) {
+                if (name.startsWith(prefix) && name.endsWith(".csv")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the given file, or waits until it has been read in the background.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @return the rows of the hierarchy
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private String[][] read(final File file, final char separator) throws IOException {
+        final Future<String[][]> task = prefetched.remove(file);
+        if (task == null) {
+            return Hierarchy.create(file.getPath(), separator).getHierarchy();
+        }
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading hierarchy " + file, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads a hierarchy from the cache and interns its values. As values containing the separator or line breaks are
+     * not cached, rows are split without quoting.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @param job the job through which values are interned
+     * @return the rows of the hierarchy
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private String[][] readCached(final File file, final char separator, final DictionaryStore.Job job) throws IOException {
+        final List<String[]> rows = new ArrayList<String[]>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final List<String> row = new ArrayList<String>();
+                int start = 0;
+                for (int end = line.indexOf(separator); end != -1; end = line.indexOf(separator, start)) {
+                    row.add(job.intern(line.substring(start, end)));
+                    start = end + 1;
+                }
+                row.add(job.intern(line.substring(start)));
+                rows.add(row.toArray(new String[row.size()]));
+            }
+        } finally {
+            reader.close();
+        }
+        return rows.toArray(new String[rows.size()][]);
+    }
+
+    /**
+     * Writes the given hierarchy to the cache. Hierarchies with values containing the separator are not cached.
+     *
+     * @param hierarchy the hierarchy
+     * @param file the file
+     * @param separator the separator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void write(final String[][] hierarchy, final File file, final char separator) throws IOException {
+        for (final String[] row : hierarchy) {
+            for (final String value : row) {
+                if ((value.indexOf(separator) != -1) || (value.indexOf('\n') != -1) || (value.indexOf('\r') != -1)) {
+                    return;
+                }
+            }
+        }
+        final File temp = new File(file.getPath() + ".tmp");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        try {
+            for (final String[] row : hierarchy) {
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        writer.write(separator);
+                    }
+                    writer.write(row[i]);
+                }
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+import org.deidentifier.arx.DataHandle;
+
+/**
+ * Generates hierarchies from the distinct values of an attribute. Supported specifications are:
+ * <ul>
+ * <li>INTERVAL(min,max,width[,fanout=n]) for numbers. Values are grouped into intervals of the given width, which
+ * are merged by the given fanout (default 2) on each level, until one interval would cover the whole range.</li>
+ * <li>DATE(granularity1,granularity2,...) for dates, with the granularities day, month, quarter, year, decade and
+ * century, from the finest to the coarsest. Weeks are not supported, as they do not nest into months or years.</li>
+ * </ul>
+ * The top level always suppresses the value. Values which cannot be parsed are suppressed on all levels.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class HierarchyGenerator {
+
+    /** The syntax of a specification. */
+    private static final Pattern      SPECIFICATION = Pattern.compile("(INTERVAL|DATE)\\((.*)\\)", Pattern.CASE_INSENSITIVE);
+
+    /** The supported granularities of dates, from the finest to the coarsest. */
+    private static final List<String> GRANULARITIES = Arrays.asList("DAY", "MONTH", "QUARTER", "YEAR", "DECADE", "CENTURY");
+
+    /** The value on the top level. */
+    private static final String       SUPPRESSED    = "*";
+
+    /**
+     * Returns whether the given hierarchy option describes a generated hierarchy rather than a file.
+     *
+     * @param hierarchy the hierarchy option
+     * @return true, if the hierarchy is generated
+     */
+    public static boolean isSpecification(final String hierarchy) {
+        return SPECIFICATION.matcher(hierarchy.trim()).matches();
+    }
+
+    /**
+     * Formats the given number without trailing zeros.
+     *
+     * @param number the number
+     * @return the string
+     */
+    private static String format(final double number) {
+        if ((number == Math.rint(number)) && (Math.abs(number) < 1e15)) {
+            return String.valueOf((long) number);
+        }
+        return BigDecimal.valueOf(number).stripTrailingZeros().toPlainString();
+    }
+
+    /** Whether this generates an interval hierarchy. */
+    private final boolean  interval;
+
+    /** The lower bound of intervals. */
+    private final double   min;
+
+    /** The upper bound of intervals. */
+    private final double   max;
+
+    /** The width of intervals on the first level. */
+    private final double   width;
+
+    /** The fanout. */
+    private final int      fanout;
+
+    /** The granularities of dates. */
+    private final String[] granularities;
+
+    /**
+     * Parses and validates the given specification.
+     *
+     * @param specification the specification
+     */
+    public HierarchyGenerator(final String specification) {
+        final Matcher matcher = SPECIFICATION.matcher(specification.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("hierarchy specification is malformed: " + specification);
+        }
+        final String[] arguments = ParseUtil.splitEscapedStringBySeparator(matcher.group(2), CommandLineInterface.SEPARATOR_OPTION);
+        this.interval = matcher.group(1).equalsIgnoreCase("INTERVAL");
+        if (interval) {
+            if ((arguments.length != 3) && (arguments.length != 4)) {
+                throw new IllegalArgumentException("syntax: INTERVAL(min,max,width[,fanout=n]): " + specification);
+            }
+            try {
+                this.min = Double.parseDouble(arguments[0].trim());
+                this.max = Double.parseDouble(arguments[1].trim());
+                this.width = Double.parseDouble(arguments[2].trim());
+                if (arguments.length == 4) {
+                    final String[] split = ParseUtil.splitEscapedStringBySeparator(arguments[3], CommandLineInterface.SEPARATOR_KEY_VALUE);
+                    if ((split.length != 2) || !split[0].trim().equalsIgnoreCase("fanout")) {
+                        throw new IllegalArgumentException("syntax: INTERVAL(min,max,width[,fanout=n]): " + specification);
+                    }
+                    this.fanout = Integer.parseInt(split[1].trim());
+                } else {
+                    this.fanout = 2;
+                }
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("not a number in hierarchy specification: " + specification);
+            }
+            if (!(min < max) || !(width > 0d) || (fanout < 2)) {
+                throw new IllegalArgumentException("interval hierarchies require min < max, width > 0 and fanout >= 2: " + specification);
+            }
+            this.granularities = null;
+        } else {
+            this.granularities = new String[arguments.length];
+            int previous = -1;
+            for (int i = 0; i < arguments.length; i++) {
+                granularities[i] = arguments[i].trim().toUpperCase(Locale.ENGLISH);
+                final int index = GRANULARITIES.indexOf(granularities[i]);
+                if (index == -1) {
+                    throw new IllegalArgumentException("unknown granularity " + arguments[i] + ", possible values " + GRANULARITIES);
+                }
+                if (index <= previous) {
+                    throw new IllegalArgumentException("granularities must be ordered from the finest to the coarsest: " + specification);
+                }
+                previous = index;
+            }
+            if (granularities.length == 0) {
+                throw new IllegalArgumentException("syntax: DATE(granularity1,granularity2,...): " + specification);
+            }
+            this.min = this.max = this.width = 0d;
+            this.fanout = 0;
+        }
+    }
+
+    /**
+     * Generates the hierarchy for the given attribute.
+     *
+     * @param handle the handle of the data
+     * @param attribute the attribute
+     * @param parser the parser of the attribute, or null if untyped
+     * @param job the job in which labels are interned
+     * @return the hierarchy
+     */
+    public Hierarchy generate(final DataHandle handle, final String attribute, final ValueParser parser, final DictionaryStore.Job job) {
+
+        // Find the column
+        int column = -1;
+        for (int i = 0; i < handle.getNumColumns(); i++) {
+            if (handle.getAttributeName(i).equals(attribute)) {
+                column = i;
+                break;
+            }
+        }
+        if (column == -1) {
+            throw new IllegalArgumentException("attribute not found in data: " + attribute);
+        }
+        if (!interval && (parser == null)) {
+            throw new IllegalArgumentException("date hierarchies require a datatype DATE(format): " + attribute);
+        }
+
+        // Collect the distinct values and parse each of them once
+        final Set<String> distinct = new HashSet<String>();
+        final List<String> values = new ArrayList<String>();
+        for (int row = 0; row < handle.getNumRows(); row++) {
+            final String value = handle.getValue(row, column);
+            if (distinct.add(value)) {
+                values.add(value);
+            }
+        }
+        final ValueParser numbers = parser != null ? parser : ValueParser.create("DECIMAL", "");
+        final double[] keys = new double[values.size()];
+        final boolean[] valid = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            try {
+                keys[i] = numbers.parse(values.get(i));
+                valid[i] = !Double.isNaN(keys[i]);
+            } catch (final ParseException e) {
+                valid[i] = false;
+            }
+        }
+
+        // Build
+        final String[][] hierarchy = new String[keys.length][];
+        if (interval) {
+            final int levels = getNumIntervalLevels();
+            for (int i = 0; i < keys.length; i++) {
+                final String[] row = new String[levels + 2];
+                row[0] = values.get(i);
+                double size = width;
+                for (int level = 1; level <= levels; level++) {
+                    row[level] = job.intern(valid[i] ? getInterval(keys[i], size) : SUPPRESSED);
+                    size *= fanout;
+                }
+                row[levels + 1] = SUPPRESSED;
+                hierarchy[i] = row;
+            }
+        } else {
+            final Calendar calendar = Calendar.getInstance();
+            for (int i = 0; i < keys.length; i++) {
+                final String[] row = new String[granularities.length + 2];
+                row[0] = values.get(i);
+                if (valid[i]) {
+                    calendar.setTimeInMillis((long) keys[i]);
+                }
+                for (int level = 0; level < granularities.length; level++) {
+                    row[level + 1] = job.intern(valid[i] ? getDate(calendar, granularities[level]) : SUPPRESSED);
+                }
+                row[granularities.length + 1] = SUPPRESSED;
+                hierarchy[i] = row;
+            }
+        }
+        return Hierarchy.create(hierarchy);
+    }
+
+    /**
+     * Returns the label of the given date in the given granularity.
+     *
+     * @param calendar the calendar set to the date
+     * @param granularity the granularity
+     * @return the label
+     */
+    private String getDate(final Calendar calendar, final String granularity) {
+        final int year = calendar.get(Calendar.YEAR);
+        final int month = calendar.get(Calendar.MONTH) + 1;
+        switch (granularity) {
+        case "DAY":
+            return String.format(Locale.ENGLISH, "%04d-%02d-%02d", year, month, calendar.get(Calendar.DAY_OF_MONTH));
+        case "MONTH":
+            return String.format(Locale.ENGLISH, "%04d-%02d", year, month);
+        case "QUARTER":
+            return String.format(Locale.ENGLISH, "%04d-Q%d", year, ((month - 1) / 3) + 1);
+        case "YEAR":
+            return String.format(Locale.ENGLISH, "%04d", year);
+        case "DECADE":
+            return String.format(Locale.ENGLISH, "%04d-%04d", (year / 10) * 10, ((year / 10) * 10) + 9);
+        case "CENTURY":
+            return String.format(Locale.ENGLISH, "%04d-%04d", (year / 100) * 100, ((year / 100) * 100) + 99);
+        default:
+            throw new IllegalStateException("unknown granularity: " + granularity);
+        }
+    }
+
+    /**
+     * Returns the label of the interval of the given size which contains the given value.
+     *
+     * @param value the value
+     * @param size the size
+     * @return the label
+     */
+    private String getInterval(final double value, final double size) {
+        if (value < min) {
+            return "<" + format(min);
+        } else if (value >= max) {
+            return ">=" + format(max);
+        }
+        final double lower = min + (Math.floor((value - min) / size) * size);
+        final double upper = Math.min(max, lower + size);
+        return "[" + format(lower) + ", " + format(upper) + "[";
+    }
+
+    /**
+     * Returns the number of levels with intervals, i.e. the levels on which the range is split into more than one
+     * interval.
+     *
+     * @return the number of levels
+     */
+    private int getNumIntervalLevels() {
+        int levels = 0;
+        double size = width;
+        while (size < (max - min)) {
+            levels++;
+            size *= fanout;
+        }
+        return Math.max(1, levels);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes several jobs concurrently in this process. Each job runs in its own thread, in which it reads its input and
+ * writes its output. Where the runtime supports virtual threads, these are used for jobs, so that many jobs may wait
+ * for I/O at low cost. Otherwise, a pool of platform threads is used. The CPU-bound search of all jobs runs in a
+ * separate pool of platform threads, whose size bounds the number of concurrent searches.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class JobExecutor {
+
+    /**
+     * Splits a line of a batch file into arguments. Arguments are separated by whitespace and may be enclosed in
+     * double quotes.
+     *
+     * @param line the line
+     * @return the arguments
+     */
+    private static String[] split(final String line) {
+        final List<String> args = new ArrayList<String>();
+        final StringBuilder current = new StringBuilder();
+        boolean quoted = false, token = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                token = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (token) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    token = false;
+                }
+            } else {
+                current.append(c);
+                token = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unbalanced quotes in batch job: " + line);
+        }
+        if (token) {
+            args.add(current.toString());
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /** The executor for jobs. */
+    private final ExecutorService     jobs;
+
+    /** The executor for searches. */
+    private final ExecutorService     searches;
+
+    /** Whether jobs run in virtual threads. */
+    private final boolean             virtual;
+
+    /** The controller, which admits jobs while they fit into the memory budget. */
+    private final AdmissionController admission;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param searches the maximal number of concurrent searches
+     * @param memory the memory budget of all concurrent searches in bytes
+     */
+    public JobExecutor(final int searches, final long memory) {
+        if (searches < 1) {
+            throw new IllegalArgumentException("number of concurrent searches must be positive: " + searches);
+        }
+        ExecutorService executor;
+        boolean virtual;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtual = true;
+        } catch (final ReflectiveOperationException e) {
+            executor = Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors());
+            virtual = false;
+        }
+        this.jobs = executor;
+        this.virtual = virtual;
+        this.searches = Executors.newFixedThreadPool(searches);
+        this.admission = new AdmissionController(memory);
+    }
+
+    /**
+     * Returns whether jobs run in virtual threads.
+     *
+     * @return true, if virtual threads are used
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Runs all jobs of the given batch file, each line of which contains the arguments of one job. Empty lines and
+     * lines starting with '#' are ignored. As jobs run concurrently, each job must write to an output file.
+     *
+     * @param file the file
+     * @param log the stream to which the status of jobs is reported
+     * @return zero, if all jobs succeeded, and one otherwise
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public int runBatch(final File file, final PrintStream log) throws IOException {
+
+        // Read
+        final List<String[]> batch = new ArrayList<String[]>();
+        final List<Integer> lines = new ArrayList<Integer>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] args = split(line);
+                final List<String> list = Arrays.asList(args);
+                if (!list.contains("-o") && !list.contains("--output") && !line.contains("--output=")) {
+                    throw new IllegalArgumentException("batch job in line " + number + " must write to an output file");
+                }
+                batch.add(args);
+                lines.add(number);
+            }
+        } finally {
+            reader.close();
+        }
+
+        // Run
+        log.println("Running " + batch.size() + " jobs" + (virtual ? " in virtual threads" : "") + " with a memory budget of " +
+                    (admission.getBudget() >> 20) + " MB");
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (final String[] args : batch) {
+            futures.add(submit(args));
+        }
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            int status;
+            try {
+                status = futures.get(i).get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for jobs", e);
+            } catch (final ExecutionException e) {
+                status = 1;
+            }
+            if (status != 0) {
+                failed++;
+            }
+            log.println("Job in line " + lines.get(i) + (status == 0 ? " succeeded" : " failed"));
+        }
+        log.println(failed == 0 ? "All jobs succeeded" : failed + " of " + batch.size() + " jobs failed");
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    public void shutdown() {
+        jobs.shutdown();
+        searches.shutdown();
+    }
+
+    /**
+     * Submits a job.
+     *
+     * @param args the arguments of the job
+     * @return the future, which provides the exit status of the job
+     */
+    public Future<Integer> submit(final String[] args) {
+        return jobs.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return new CommandLineInterface(searches, admission).run(args);
+            }
+        });
+    }
+}
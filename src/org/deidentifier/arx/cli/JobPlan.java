@@ -0,0 +1,629 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.deidentifier.arx.DataType;
+import org.deidentifier.arx.cli.CommandLineInterface.Metric;
+import org.deidentifier.arx.cli.model.Criterion;
+import org.deidentifier.arx.cli.model.DistinctLDiversity;
+import org.deidentifier.arx.cli.model.EntropyLDiversity;
+import org.deidentifier.arx.cli.model.EqualTCloseness;
+import org.deidentifier.arx.cli.model.HierarchicalTCloseness;
+import org.deidentifier.arx.cli.model.RecursiveLDiversity;
+
+/**
+ * An immutable, validated description of an anonymization job: the attributes and their types, the hierarchies,
+ * the privacy criteria and the parameters of the search. Plans are compiled from a profile in the properties format,
+ * whose keys are the long names of the corresponding command line options, e.g.:
+ *
+ * <pre>
+ * quasiidentifying=age,zipcode
+ * hierarchies=age=INTERVAL(0,120,5),zipcode=zipcode.csv
+ * criteria=5-ANONYMITY
+ * metric=DM
+ * </pre>
+ *
+ * A compiled plan can be written in a binary form. It stores the validated specifications in their textual form, so
+ * reading it skips the checks of a profile, but the criteria and data types are still parsed again.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public final class JobPlan {
+
+    /** The first bytes of a binary plan. */
+    private static final int          MAGIC            = 0x41525850;
+
+    /** The version of the binary format. */
+    private static final int          VERSION          = 1;
+
+    /** The syntax of a data type. */
+    private static final Pattern      DATA_TYPE        = Pattern.compile("(\\w+)[(]?(.*)", Pattern.CASE_INSENSITIVE);
+
+    /** The keys of a profile. */
+    public static final List<String>  KEYS             = Collections.unmodifiableList(Arrays.asList("quasiidentifying",
+                                                                                                    "sensitive",
+                                                                                                    "insensitive",
+                                                                                                    "identifying",
+                                                                                                    "hierarchies",
+                                                                                                    "datatype",
+                                                                                                    "criteria",
+                                                                                                    "metric",
+                                                                                                    "suppression",
+                                                                                                    "practicalmonotonicity"));
+
+    /**
+     * Compiles a plan from the given profile.
+     *
+     * @param profile the profile
+     * @return the plan
+     * @throws ParseException the parse exception
+     */
+    public static JobPlan compile(final Properties profile) throws ParseException {
+        for (final String key : profile.stringPropertyNames()) {
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("unknown profile entry: " + key);
+            }
+        }
+        return new JobPlan(profile);
+    }
+
+    /**
+     * Returns whether the given file contains a binary plan.
+     *
+     * @param file the file
+     * @return true, if binary
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static boolean isBinary(final File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (final EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads a profile from the given file.
+     *
+     * @param file the file
+     * @return the profile
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static Properties loadProfile(final File file) throws IOException {
+        final Properties profile = new Properties();
+        final InputStreamReader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            profile.load(reader);
+        } finally {
+            reader.close();
+        }
+        return profile;
+    }
+
+    /**
+     * Reads a plan in the binary form.
+     *
+     * @param in the input
+     * @return the plan
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static JobPlan read(final DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a job plan");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported job plan version: " + version);
+        }
+        return new JobPlan(in);
+    }
+
+    /**
+     * Reads a binary plan.
+     *
+     * @param file the file
+     * @return the plan
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static JobPlan read(final File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return read(in);
+        } catch (final IOException e) {
+            throw new IOException("cannot read job plan " + file + ": " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a list of strings.
+     *
+     * @param in the input
+     * @return the list
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static List<String> readList(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        final List<String> list = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Splits the given list.
+     *
+     * @param value the value, or null
+     * @return the list
+     */
+    private static List<String> split(final String value) {
+        final List<String> list = new ArrayList<String>();
+        for (final String element : ParseUtil.splitEscapedStringBySeparator(value, CommandLineInterface.SEPARATOR_OPTION)) {
+            if (element.trim().length() > 0) {
+                list.add(element);
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Writes a list of strings.
+     *
+     * @param out the output
+     * @param list the list
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeList(final DataOutput out, final List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (final String element : list) {
+            out.writeUTF(element);
+        }
+    }
+
+    /** The quasi identifiers. */
+    private final List<String>             quasiIdentifiers;
+
+    /** The sensitive attributes. */
+    private final List<String>             sensitiveAttributes;
+
+    /** The insensitive attributes. */
+    private final List<String>             insensitiveAttributes;
+
+    /** The identifying attributes. */
+    private final List<String>             identifyingAttributes;
+
+    /** The hierarchy specifications by attribute. */
+    private final Map<String, String>      hierarchies;
+
+    /** The data types by attribute, as pairs of type and format. */
+    private final Map<String, String[]>    dataTypes;
+
+    /** The criteria. */
+    private final List<Criterion>          criteria;
+
+    /** The metric. */
+    private final Metric                   metric;
+
+    /** The suppression limit. */
+    private final double                   suppression;
+
+    /** Whether practical monotonicity is assumed. */
+    private final boolean                  practicalMonotonicity;
+
+    /** The data types by attribute. */
+    private final Map<String, DataType<?>> types;
+
+    /** The parsers by attribute. */
+    private final Map<String, ValueParser> parsers;
+
+    /**
+     * Reads a plan in the binary form.
+     *
+     * @param in the input
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private JobPlan(final DataInput in) throws IOException {
+        this.quasiIdentifiers = readList(in);
+        this.sensitiveAttributes = readList(in);
+        this.insensitiveAttributes = readList(in);
+        this.identifyingAttributes = readList(in);
+        final Map<String, String> hierarchies = new LinkedHashMap<String, String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            hierarchies.put(in.readUTF(), in.readUTF());
+        }
+        this.hierarchies = Collections.unmodifiableMap(hierarchies);
+        final Map<String, String[]> dataTypes = new LinkedHashMap<String, String[]>();
+        for (int i = in.readInt(); i > 0; i--) {
+            dataTypes.put(in.readUTF(), new String[] { in.readUTF(), in.readUTF() });
+        }
+        this.dataTypes = Collections.unmodifiableMap(dataTypes);
+        final List<Criterion> criteria = new ArrayList<Criterion>();
+        try {
+            for (int i = in.readInt(); i > 0; i--) {
+                final String criterion = ParseUtil.toEscapedString(in.readUTF(), CommandLineInterface.SEPARATOR_OPTION);
+                criteria.addAll(Criterion.create(criterion, CommandLineInterface.SEPARATOR_OPTION));
+            }
+            this.metric = Metric.valueOf(in.readUTF());
+            this.types = createDataTypes();
+            this.parsers = createParsers();
+        } catch (final ParseException | IllegalArgumentException e) {
+            throw new IOException("invalid job plan: " + e.getMessage(), e);
+        }
+        this.criteria = Collections.unmodifiableList(criteria);
+        this.suppression = in.readDouble();
+        this.practicalMonotonicity = in.readBoolean();
+    }
+
+    /**
+     * Compiles and validates the given profile.
+     *
+     * @param profile the profile
+     * @throws ParseException the parse exception
+     */
+    private JobPlan(final Properties profile) throws ParseException {
+
+        // Attributes
+        this.quasiIdentifiers = split(profile.getProperty("quasiidentifying"));
+        this.sensitiveAttributes = split(profile.getProperty("sensitive"));
+        this.insensitiveAttributes = split(profile.getProperty("insensitive"));
+        this.identifyingAttributes = split(profile.getProperty("identifying"));
+        final Set<String> attributes = new HashSet<String>();
+        for (final List<String> list : Arrays.asList(quasiIdentifiers, sensitiveAttributes, insensitiveAttributes, identifyingAttributes)) {
+            for (final String attribute : list) {
+                if (!attributes.add(attribute)) {
+                    throw new IllegalArgumentException("attribute has more than one type: " + attribute);
+                }
+            }
+        }
+
+        // Hierarchies
+        final Map<String, String> hierarchies = new LinkedHashMap<String, String>();
+        for (final String hierarchy : ParseUtil.splitEscapedStringOutsideParentheses(profile.getProperty("hierarchies"),
+                                                                                      CommandLineInterface.SEPARATOR_OPTION)) {
+            final String[] split = ParseUtil.splitEscapedStringOutsideParentheses(hierarchy, CommandLineInterface.SEPARATOR_KEY_VALUE);
+            if (split.length != 2) {
+                throw new IllegalArgumentException("hierarchy string is malformed.");
+            }
+            if (HierarchyGenerator.isSpecification(split[1])) {
+                new HierarchyGenerator(split[1]); // Fails for invalid specifications
+            }
+            hierarchies.put(split[0], split[1]);
+        }
+        for (final String attribute : quasiIdentifiers) {
+            if (!hierarchies.containsKey(attribute)) {
+                throw new IllegalArgumentException("quasi identifiers must have a hierarchy specified: " + attribute);
+            }
+        }
+        this.hierarchies = Collections.unmodifiableMap(hierarchies);
+
+        // Data types
+        this.dataTypes = Collections.unmodifiableMap(parseDataTypes(split(profile.getProperty("datatype"))));
+
+        // Criteria
+        final String criteria = profile.getProperty("criteria");
+        if ((criteria == null) || (criteria.trim().length() == 0)) {
+            throw new IllegalArgumentException("no criteria has been specified");
+        }
+        this.criteria = Collections.unmodifiableList(Criterion.create(criteria, CommandLineInterface.SEPARATOR_OPTION));
+        for (final Criterion criterion : this.criteria) {
+            final String attribute = getSensitiveAttribute(criterion);
+            if ((attribute != null) && !sensitiveAttributes.contains(attribute)) {
+                throw new IllegalArgumentException("criterion refers to an attribute which is not sensitive: " + criterion);
+            }
+        }
+
+        // Parameters
+        this.metric = Metric.valueOf(profile.getProperty("metric", "ENTROPY").trim().toUpperCase());
+        try {
+            this.suppression = Double.parseDouble(profile.getProperty("suppression", "0").trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("suppression is not a number: " + profile.getProperty("suppression"));
+        }
+        if ((suppression < 0d) || (suppression > 1d)) {
+            throw new IllegalArgumentException("suppression must be in [0, 1]: " + suppression);
+        }
+        this.practicalMonotonicity = Boolean.parseBoolean(profile.getProperty("practicalmonotonicity", "false").trim());
+
+        // Typed attributes
+        this.types = createDataTypes();
+        this.parsers = createParsers();
+    }
+
+    /**
+     * Returns the criteria.
+     *
+     * @return the criteria
+     */
+    public List<Criterion> getCriteria() {
+        return criteria;
+    }
+
+    /**
+     * Returns the data types by attribute.
+     *
+     * @return the data types
+     */
+    public Map<String, DataType<?>> getDataTypes() {
+        return types;
+    }
+
+    /**
+     * Returns thread-safe parsers for the values of all typed attributes, except strings.
+     *
+     * @return the parsers by attribute
+     */
+    public Map<String, ValueParser> getParsers() {
+        return parsers;
+    }
+
+    /**
+     * Returns the hierarchy specifications by attribute, i.e. either file names or specifications of generated
+     * hierarchies.
+     *
+     * @return the hierarchies
+     */
+    public Map<String, String> getHierarchies() {
+        return hierarchies;
+    }
+
+    /**
+     * Returns the identifying attributes.
+     *
+     * @return the identifying attributes
+     */
+    public List<String> getIdentifyingAttributes() {
+        return identifyingAttributes;
+    }
+
+    /**
+     * Returns the insensitive attributes.
+     *
+     * @return the insensitive attributes
+     */
+    public List<String> getInsensitiveAttributes() {
+        return insensitiveAttributes;
+    }
+
+    /**
+     * Returns the metric.
+     *
+     * @return the metric
+     */
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Returns the quasi identifiers.
+     *
+     * @return the quasi identifiers
+     */
+    public List<String> getQuasiIdentifiers() {
+        return quasiIdentifiers;
+    }
+
+    /**
+     * Returns the sensitive attributes.
+     *
+     * @return the sensitive attributes
+     */
+    public List<String> getSensitiveAttributes() {
+        return sensitiveAttributes;
+    }
+
+    /**
+     * Returns the suppression limit.
+     *
+     * @return the suppression limit
+     */
+    public double getSuppression() {
+        return suppression;
+    }
+
+    /**
+     * Returns whether practical monotonicity is assumed.
+     *
+     * @return true, if practical monotonicity is assumed
+     */
+    public boolean isPracticalMonotonicity() {
+        return practicalMonotonicity;
+    }
+
+    /**
+     * Writes this plan in the binary form.
+     *
+     * @param out the output
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeList(out, quasiIdentifiers);
+        writeList(out, sensitiveAttributes);
+        writeList(out, insensitiveAttributes);
+        writeList(out, identifyingAttributes);
+        out.writeInt(hierarchies.size());
+        for (final Entry<String, String> entry : hierarchies.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.writeInt(dataTypes.size());
+        for (final Entry<String, String[]> entry : dataTypes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue()[0]);
+            out.writeUTF(entry.getValue()[1]);
+        }
+        out.writeInt(criteria.size());
+        for (final Criterion criterion : criteria) {
+            out.writeUTF(criterion.toString());
+        }
+        out.writeUTF(metric.name());
+        out.writeDouble(suppression);
+        out.writeBoolean(practicalMonotonicity);
+    }
+
+    /**
+     * Writes this plan in the binary form.
+     *
+     * @param file the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(final File file) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates a data type.
+     *
+     * @param type the type
+     * @param format the format
+     * @return the data type
+     */
+    private DataType<?> createDataType(final String type, final String format) {
+        switch (type) {
+        case "STRING":
+            return DataType.STRING;
+        case "INTEGER":
+            return DataType.INTEGER;
+        case "DECIMAL":
+            return DataType.createDecimal(format);
+        case "DATE":
+            return DataType.createDate(format);
+        default:
+            throw new IllegalArgumentException("datatype not recognized: " + type);
+        }
+    }
+
+    /**
+     * Creates the data types by attribute.
+     *
+     * @return the data types
+     */
+    private Map<String, DataType<?>> createDataTypes() {
+        final Map<String, DataType<?>> types = new LinkedHashMap<String, DataType<?>>();
+        for (final Entry<String, String[]> entry : dataTypes.entrySet()) {
+            types.put(entry.getKey(), createDataType(entry.getValue()[0], entry.getValue()[1]));
+        }
+        return Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Creates the parsers by attribute.
+     *
+     * @return the parsers
+     */
+    private Map<String, ValueParser> createParsers() {
+        final Map<String, ValueParser> parsers = new LinkedHashMap<String, ValueParser>();
+        for (final Entry<String, String[]> entry : dataTypes.entrySet()) {
+            final ValueParser parser = ValueParser.create(entry.getValue()[0], entry.getValue()[1]);
+            if (parser != null) {
+                parsers.put(entry.getKey(), parser);
+            }
+        }
+        return Collections.unmodifiableMap(parsers);
+    }
+
+    /**
+     * Returns the sensitive attribute a criterion refers to, or null.
+     *
+     * @param criterion the criterion
+     * @return the attribute
+     */
+    private String getSensitiveAttribute(final Criterion criterion) {
+        if (criterion instanceof DistinctLDiversity) {
+            return ((DistinctLDiversity) criterion).getAttribute();
+        } else if (criterion instanceof EntropyLDiversity) {
+            return ((EntropyLDiversity) criterion).getAttribute();
+        } else if (criterion instanceof RecursiveLDiversity) {
+            return ((RecursiveLDiversity) criterion).getAttribute();
+        } else if (criterion instanceof HierarchicalTCloseness) {
+            return ((HierarchicalTCloseness) criterion).getAttribute();
+        } else if (criterion instanceof EqualTCloseness) {
+            return ((EqualTCloseness) criterion).getAttribute();
+        }
+        return null;
+    }
+
+    /**
+     * Parses and validates the given data type specifications.
+     *
+     * @param datatypeOption the datatype option
+     * @return the pairs of type and format by attribute
+     */
+    private Map<String, String[]> parseDataTypes(final List<String> datatypeOption) {
+        final Map<String, String[]> datatypes = new LinkedHashMap<String, String[]>();
+        for (final String type : datatypeOption) {
+            final String[] split = ParseUtil.splitEscapedStringBySeparator(type, CommandLineInterface.SEPARATOR_KEY_VALUE);
+            if (split.length != 2) {
+                throw new IllegalArgumentException("datatype string is malformed.");
+            }
+
+            final Matcher matcher = DATA_TYPE.matcher(split[1]);
+            while (matcher.find()) {
+                final String datatype = matcher.group(1).toUpperCase();
+                final String f = matcher.group(2);
+                String format = "";
+                if (f.length() > 0) {
+                    format = f.substring(0, f.length() - 1);
+                }
+                // Fails for unknown types and invalid formats
+                createDataType(datatype, format);
+                ValueParser.create(datatype, format);
+                datatypes.put(split[0], new String[] { datatype, format });
+            }
+        }
+        return datatypes;
+    }
+}
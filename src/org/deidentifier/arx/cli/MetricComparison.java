@@ -0,0 +1,258 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deidentifier.arx.ARXLattice.ARXNode;
+import org.deidentifier.arx.ARXLattice.Anonymity;
+import org.deidentifier.arx.ARXResult;
+import org.deidentifier.arx.AttributeType.Hierarchy;
+import org.deidentifier.arx.DataHandle;
+import org.deidentifier.arx.cli.CommandLineInterface.Metric;
+
+/**
+ * Compares the transformations found by a single search under several metrics. If all metrics are monotonic, the
+ * candidates are the minimal anonymous transformations of the lattice, i.e. those whose predecessors are not anonymous,
+ * which include the optimum of every monotonic metric. Otherwise, all anonymous transformations are candidates. The
+ * statistics of each candidate are collected once from its output and cached, after which the candidates are scored
+ * under all metrics in parallel. Transformations which are only probably anonymous are candidates, too, and are
+ * discarded if their output turns out not to be anonymous.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class MetricComparison {
+
+    /**
+     * The optimum under a metric.
+     */
+    public static class Optimum {
+
+        /** The statistics of the transformation. */
+        private final OutputStatistics statistics;
+
+        /** The information loss. */
+        private final double           loss;
+
+        /**
+         * Creates a new optimum.
+         *
+         * @param statistics the statistics of the transformation
+         * @param loss the information loss
+         */
+        private Optimum(final OutputStatistics statistics, final double loss) {
+            this.statistics = statistics;
+            this.loss = loss;
+        }
+
+        /**
+         * Returns the generalization levels of the transformation.
+         *
+         * @return the levels
+         */
+        public int[] getLevels() {
+            return statistics.getLevels();
+        }
+
+        /**
+         * Returns the information loss.
+         *
+         * @return the loss
+         */
+        public double getLoss() {
+            return loss;
+        }
+    }
+
+    /**
+     * Returns whether the given metric is monotonic, i.e. whether its information loss never decreases when the data
+     * is generalized further. Metrics based on equivalence classes are only monotonic without suppression.
+     *
+     * @param metric the metric
+     * @param suppression the suppression limit
+     * @return whether the metric is monotonic
+     */
+    public static boolean isMonotonic(final Metric metric, final double suppression) {
+        switch (metric) {
+        case ENTROPY:
+        case HEIGHT:
+        case PREC:
+            return true;
+        default:
+            return suppression == 0d;
+        }
+    }
+
+    /**
+     * Returns the anonymous transformations of the lattice of the given result, which may be restricted to the minimal
+     * ones. This includes transformations which are only probably anonymous.
+     *
+     * @param result the result
+     * @param minimal whether only minimal transformations are returned
+     * @return the transformations
+     */
+    private static List<ARXNode> getCandidates(final ARXResult result, final boolean minimal) {
+        final List<ARXNode> candidates = new ArrayList<ARXNode>();
+        for (final ARXNode[] level : result.getLattice().getLevels()) {
+            outer: for (final ARXNode node : level) {
+                if ((node.isAnonymous() != Anonymity.ANONYMOUS) && (node.isAnonymous() != Anonymity.PROBABLY_ANONYMOUS)) {
+                    continue;
+                }
+                if (minimal) {
+                    for (final ARXNode predecessor : node.getPredecessors()) {
+                        if (predecessor.isAnonymous() == Anonymity.ANONYMOUS) {
+                            continue outer;
+                        }
+                    }
+                }
+                candidates.add(node);
+            }
+        }
+        return candidates;
+    }
+
+    /** The quasi-identifiers. */
+    private final String[]               attributes;
+
+    /** The metrics. */
+    private final List<Metric>           metrics;
+
+    /** Whether only the minimal anonymous transformations are compared. */
+    private final boolean                minimal;
+
+    /** The statistics of the candidates. */
+    private final List<OutputStatistics> candidates = new ArrayList<OutputStatistics>();
+
+    /** The number of threads. */
+    private final int                    threads;
+
+    /**
+     * Collects the statistics of all candidates of the given result for the given metrics. This invalidates previously
+     * obtained outputs of the result.
+     *
+     * @param result the result
+     * @param input the input
+     * @param attributes the quasi-identifiers
+     * @param hierarchies the hierarchies
+     * @param metrics the metrics
+     * @param suppression the suppression limit
+     * @param threads the number of threads
+     */
+    public MetricComparison(final ARXResult result,
+                            final DataHandle input,
+                            final String[] attributes,
+                            final Map<String, Hierarchy> hierarchies,
+                            final List<Metric> metrics,
+                            final double suppression,
+                            final int threads) {
+        this.attributes = attributes;
+        this.metrics = metrics;
+        this.threads = threads;
+        boolean minimal = true;
+        for (final Metric metric : metrics) {
+            minimal &= isMonotonic(metric, suppression);
+        }
+        this.minimal = minimal;
+        for (final ARXNode node : getCandidates(result, minimal)) {
+            final int[] levels = new int[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                levels[i] = node.getGeneralization(attributes[i]);
+            }
+            // Outputs are obtained one at a time, as a result holds a single output buffer
+            final DataHandle output = result.getOutput(node);
+            if (node.isAnonymous() == Anonymity.ANONYMOUS) { // checked when the output was obtained
+                candidates.add(new OutputStatistics(input, output, attributes, levels, hierarchies, threads));
+            }
+        }
+    }
+
+    /**
+     * Returns the optimum under each metric, or an empty map if there are no candidates.
+     *
+     * @return the optima
+     */
+    public Map<Metric, Optimum> evaluate() {
+        final Map<Metric, Optimum> optima = new EnumMap<Metric, Optimum>(Metric.class);
+        if (candidates.isEmpty()) {
+            return optima;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, metrics.size())));
+        try {
+            final List<Future<Optimum>> futures = new ArrayList<Future<Optimum>>();
+            for (final Metric metric : metrics) {
+                futures.add(executor.submit(new Callable<Optimum>() {
+                    @Override
+                    public Optimum call() {
+                        Optimum optimum = null;
+                        for (final OutputStatistics candidate : candidates) {
+                            final double loss = candidate.getInformationLoss(metric);
+                            if ((optimum == null) || (loss < optimum.loss)) {
+                                optimum = new Optimum(candidate, loss);
+                            }
+                        }
+                        return optimum;
+                    }
+                }));
+            }
+            for (int i = 0; i < metrics.size(); i++) {
+                optima.put(metrics.get(i), futures.get(i).get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while evaluating metrics", e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("failed to evaluate metrics: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return optima;
+    }
+
+    /**
+     * Returns the number of candidates.
+     *
+     * @return the number of candidates
+     */
+    public int getNumCandidates() {
+        return candidates.size();
+    }
+
+    /**
+     * Prints the optima under each metric.
+     *
+     * @param out the stream
+     */
+    public void print(final PrintStream out) {
+        out.println("Compared " + candidates.size() + (minimal ? " minimal" : "") + " anonymous transformations of " + Arrays.toString(attributes));
+        for (final Map.Entry<Metric, Optimum> entry : evaluate().entrySet()) {
+            out.println(" - Optimum under " + entry.getKey() + ": " + Arrays.toString(entry.getValue().getLevels()) + ", information loss " +
+                        entry.getValue().getLoss());
+        }
+    }
+}
@@ -0,0 +1,514 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+import org.deidentifier.arx.DataHandle;
+import org.deidentifier.arx.cli.model.Criterion;
+import org.deidentifier.arx.cli.model.DistinctLDiversity;
+import org.deidentifier.arx.cli.model.EntropyLDiversity;
+import org.deidentifier.arx.cli.model.KAnonymity;
+import org.deidentifier.arx.cli.model.RecursiveLDiversity;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongIntOpenHashMap;
+
+/**
+ * Decides k-anonymity and l-diversity of transformations without running the anonymizer. For each transformation, the
+ * sizes of its equivalence classes and the distributions of the frequencies of sensitive values within them are
+ * computed from the data. These summaries do not depend on the parameters of the criteria, and are cached across runs
+ * in a file whose name is derived from a fingerprint of the data, the hierarchies, the quasi-identifiers and the
+ * sensitive attributes. Classes of rows are keyed by a mixed-radix number which may collide for very large domains.
+ * Collisions merge classes, so that transformations may wrongly be considered anonymous but never wrongly be rejected.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class NodeEvaluator {
+
+    /**
+     * The equivalence classes of a transformation.
+     */
+    private static class Summary {
+
+        /** The sizes of the classes. */
+        private final int[]     sizes;
+
+        /** For each class and sensitive attribute, the frequencies of the sensitive values, in descending order. */
+        private final int[][][] distributions;
+
+        /**
+         * Creates a new summary.
+         *
+         * @param sizes the sizes
+         * @param distributions the distributions
+         */
+        private Summary(final int[] sizes, final int[][][] distributions) {
+            this.sizes = sizes;
+            this.distributions = distributions;
+        }
+    }
+
+    /** The magic number of cache files. */
+    private static final int MAGIC   = 0x41525845;
+
+    /** The version of cache files. */
+    private static final int VERSION = 1;
+
+    /**
+     * Returns whether all given criteria can be decided by this class.
+     *
+     * @param criteria the criteria
+     * @return true, if supported
+     */
+    public static boolean isSupported(final List<Criterion> criteria) {
+        for (final Criterion criterion : criteria) {
+            if (!(criterion instanceof KAnonymity) && !(criterion instanceof DistinctLDiversity) && !(criterion instanceof EntropyLDiversity) &&
+                !(criterion instanceof RecursiveLDiversity)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the column of the given attribute.
+     *
+     * @param handle the handle
+     * @param attribute the attribute
+     * @return the column
+     */
+    private static int getColumn(final DataHandle handle, final String attribute) {
+        for (int column = 0; column < handle.getNumColumns(); column++) {
+            if (handle.getAttributeName(column).equals(attribute)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("attribute not found in data: " + attribute);
+    }
+
+    /**
+     * Sorts the given frequencies in descending order.
+     *
+     * @param frequencies the frequencies
+     * @return the frequencies
+     */
+    private static int[] sortDescending(final int[] frequencies) {
+        Arrays.sort(frequencies);
+        for (int i = 0, j = frequencies.length - 1; i < j; i++, j--) {
+            final int temp = frequencies[i];
+            frequencies[i] = frequencies[j];
+            frequencies[j] = temp;
+        }
+        return frequencies;
+    }
+
+    /** The quasi-identifiers. */
+    private final String[]             attributes;
+
+    /** The criteria. */
+    private final List<Criterion>      criteria;
+
+    /** The index of the sensitive attribute of each criterion, or -1. */
+    private final int[]                indices;
+
+    /** The maximal number of suppressed rows. */
+    private final int                  outliers;
+
+    /** The number of rows. */
+    private final int                  rows;
+
+    /** The codes of the values of the quasi-identifiers, by column and row. */
+    private final int[][]              codes;
+
+    /** The codes of the generalized values, by column, level and code of the value. */
+    private final int[][][]            generalization;
+
+    /** The number of distinct generalized values of each quasi-identifier. */
+    private final int[]                radix;
+
+    /** The codes of the sensitive values, by attribute and row. */
+    private final int[][]              sensitiveCodes;
+
+    /** The number of distinct values of each sensitive attribute. */
+    private final int[]                sensitiveSizes;
+
+    /** The summaries of the transformations. */
+    private final Map<String, Summary> summaries = new HashMap<String, Summary>();
+
+    /** The cache file, or null. */
+    private final File                 file;
+
+    /** Whether summaries have been added since the cache has been loaded. */
+    private boolean                    modified;
+
+    /** The number of decisions based on cached summaries. */
+    private int                        hits;
+
+    /**
+     * Encodes the data and loads the cached summaries.
+     *
+     * @param handle the handle of the data
+     * @param attributes the quasi-identifiers
+     * @param hierarchies the hierarchies
+     * @param sensitive the sensitive attributes
+     * @param criteria the criteria
+     * @param suppression the maximal fraction of suppressed rows
+     * @param cache the cache directory, or null
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public NodeEvaluator(final DataHandle handle,
+                         final String[] attributes,
+                         final Map<String, Hierarchy> hierarchies,
+                         final String[] sensitive,
+                         final List<Criterion> criteria,
+                         final double suppression,
+                         final File cache) throws IOException {
+        if (!isSupported(criteria)) {
+            throw new IllegalArgumentException("only k-anonymity and l-diversity can be evaluated: " + criteria);
+        }
+        if ((cache != null) && !cache.isDirectory() && !cache.mkdirs()) {
+            throw new IllegalArgumentException("cannot create node cache directory: " + cache);
+        }
+        this.attributes = attributes;
+        this.criteria = criteria;
+        this.rows = handle.getNumRows();
+        this.outliers = (int) Math.floor(suppression * rows);
+        this.indices = new int[criteria.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = criteria.get(i) instanceof KAnonymity ? -1 : Arrays.asList(sensitive).indexOf(getAttribute(criteria.get(i)));
+            if ((indices[i] == -1) && !(criteria.get(i) instanceof KAnonymity)) {
+                throw new IllegalArgumentException("attribute of criterion is not sensitive: " + criteria.get(i));
+            }
+        }
+
+        long fingerprint = Fingerprint.hash(VERSION + Arrays.toString(attributes) + Arrays.toString(sensitive));
+
+        // Quasi-identifiers and their hierarchies
+        this.codes = new int[attributes.length][rows];
+        this.generalization = new int[attributes.length][][];
+        this.radix = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            final Map<String, Integer> values = new HashMap<String, Integer>();
+            final Map<String, Integer> generalized = new HashMap<String, Integer>();
+            final String[][] hierarchy = hierarchies.get(attributes[i]).getHierarchy();
+            final int levels = hierarchy.length == 0 ? 1 : hierarchy[0].length;
+            for (final String[] row : hierarchy) {
+                for (final String value : row) {
+                    fingerprint = Fingerprint.mix(fingerprint, value);
+                }
+            }
+            final int column = getColumn(handle, attributes[i]);
+            for (int row = 0; row < rows; row++) {
+                final String value = handle.getValue(row, column);
+                fingerprint = Fingerprint.mix(fingerprint, value);
+                Integer code = values.get(value);
+                if (code == null) {
+                    code = values.size();
+                    values.put(value, code);
+                }
+                codes[i][row] = code;
+            }
+            generalization[i] = new int[levels][values.size()];
+            final Map<String, String[]> byValue = new HashMap<String, String[]>();
+            for (final String[] row : hierarchy) {
+                byValue.put(row[0], row);
+            }
+            for (final Entry<String, Integer> entry : values.entrySet()) {
+                final String[] row = byValue.get(entry.getKey());
+                for (int level = 0; level < levels; level++) {
+                    final String value = row == null ? entry.getKey() : row[Math.min(level, row.length - 1)];
+                    Integer code = generalized.get(value);
+                    if (code == null) {
+                        code = generalized.size();
+                        generalized.put(value, code);
+                    }
+                    generalization[i][level][entry.getValue()] = code;
+                }
+            }
+            radix[i] = Math.max(1, generalized.size());
+        }
+
+        // Sensitive attributes
+        this.sensitiveCodes = new int[sensitive.length][rows];
+        this.sensitiveSizes = new int[sensitive.length];
+        for (int i = 0; i < sensitive.length; i++) {
+            final Map<String, Integer> values = new HashMap<String, Integer>();
+            final int column = getColumn(handle, sensitive[i]);
+            for (int row = 0; row < rows; row++) {
+                final String value = handle.getValue(row, column);
+                fingerprint = Fingerprint.mix(fingerprint, value);
+                Integer code = values.get(value);
+                if (code == null) {
+                    code = values.size();
+                    values.put(value, code);
+                }
+                sensitiveCodes[i][row] = code;
+            }
+            sensitiveSizes[i] = Math.max(1, values.size());
+        }
+
+        this.file = cache == null ? null : new File(cache, "nodes-" + Long.toHexString(fingerprint) + ".bin");
+        if ((file != null) && file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the number of decisions which were based on cached summaries.
+     *
+     * @return the number of hits
+     */
+    public int getNumHits() {
+        return hits;
+    }
+
+    /**
+     * Returns whether the given transformation fulfills all criteria, given the maximal number of suppressed rows.
+     *
+     * @param node the generalization level of each quasi-identifier
+     * @return true, if anonymous
+     */
+    public boolean isAnonymous(final int[] node) {
+        final String key = Arrays.toString(node);
+        Summary summary = summaries.get(key);
+        if (summary != null) {
+            hits++;
+        } else {
+            summary = summarize(node);
+            summaries.put(key, summary);
+            modified = true;
+        }
+        int suppressed = 0;
+        for (int i = 0; i < summary.sizes.length; i++) {
+            if (!isFulfilled(summary.sizes[i], summary.distributions[i])) {
+                suppressed += summary.sizes[i];
+                if (suppressed > outliers) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the summaries to the cache, if any have been added.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void save() throws IOException {
+        if ((file == null) || !modified) {
+            return;
+        }
+        final File temp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(summaries.size());
+            for (final Entry<String, Summary> entry : summaries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                final Summary summary = entry.getValue();
+                out.writeInt(summary.sizes.length);
+                for (int i = 0; i < summary.sizes.length; i++) {
+                    out.writeInt(summary.sizes[i]);
+                    for (final int[] distribution : summary.distributions[i]) {
+                        out.writeInt(distribution.length);
+                        for (final int frequency : distribution) {
+                            out.writeInt(frequency);
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        modified = false;
+    }
+
+    /**
+     * Returns the sensitive attribute of the given criterion.
+     *
+     * @param criterion the criterion
+     * @return the attribute
+     */
+    private String getAttribute(final Criterion criterion) {
+        if (criterion instanceof DistinctLDiversity) {
+            return ((DistinctLDiversity) criterion).getAttribute();
+        } else if (criterion instanceof EntropyLDiversity) {
+            return ((EntropyLDiversity) criterion).getAttribute();
+        } else {
+            return ((RecursiveLDiversity) criterion).getAttribute();
+        }
+    }
+
+    /**
+     * Returns whether a class fulfills all criteria.
+     *
+     * @param size the size of the class
+     * @param distributions the distributions of the sensitive values
+     * @return true, if fulfilled
+     */
+    private boolean isFulfilled(final int size, final int[][] distributions) {
+        for (int i = 0; i < indices.length; i++) {
+            final Criterion criterion = criteria.get(i);
+            if (criterion instanceof KAnonymity) {
+                if (size < ((KAnonymity) criterion).getK()) {
+                    return false;
+                }
+            } else if (criterion instanceof DistinctLDiversity) {
+                if (distributions[indices[i]].length < ((DistinctLDiversity) criterion).getL()) {
+                    return false;
+                }
+            } else if (criterion instanceof EntropyLDiversity) {
+                double entropy = 0d;
+                for (final int frequency : distributions[indices[i]]) {
+                    final double p = (double) frequency / (double) size;
+                    entropy -= p * Math.log(p);
+                }
+                if (entropy < (Math.log(((EntropyLDiversity) criterion).getL()) - 1e-9)) {
+                    return false;
+                }
+            } else {
+                final RecursiveLDiversity recursive = (RecursiveLDiversity) criterion;
+                final int[] distribution = distributions[indices[i]];
+                final int l = recursive.getL();
+                if (distribution.length < l) {
+                    return false;
+                }
+                long tail = 0;
+                for (int j = l - 1; j < distribution.length; j++) {
+                    tail += distribution[j];
+                }
+                if (!(distribution[0] < (recursive.getC() * tail))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads the cached summaries. Caches which cannot be read are ignored.
+     */
+    private void load() {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                    return;
+                }
+                final int count = in.readInt();
+                for (int n = 0; n < count; n++) {
+                    final String key = in.readUTF();
+                    final int[] sizes = new int[in.readInt()];
+                    final int[][][] distributions = new int[sizes.length][sensitiveSizes.length][];
+                    for (int i = 0; i < sizes.length; i++) {
+                        sizes[i] = in.readInt();
+                        for (int j = 0; j < sensitiveSizes.length; j++) {
+                            distributions[i][j] = new int[in.readInt()];
+                            for (int k = 0; k < distributions[i][j].length; k++) {
+                                distributions[i][j][k] = in.readInt();
+                            }
+                        }
+                    }
+                    summaries.put(key, new Summary(sizes, distributions));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            summaries.clear();
+        }
+    }
+
+    /**
+     * Computes the equivalence classes of the given transformation.
+     *
+     * @param node the transformation
+     * @return the summary
+     */
+    private Summary summarize(final int[] node) {
+
+        // Classes
+        final LongIntOpenHashMap classes = new LongIntOpenHashMap();
+        final IntArrayList sizes = new IntArrayList();
+        final int[] classOf = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            long key = 0;
+            for (int i = 0; i < attributes.length; i++) {
+                key = (key * radix[i]) + generalization[i][node[i]][codes[i][row]];
+            }
+            final int id;
+            if (classes.containsKey(key)) {
+                id = classes.lget();
+                sizes.set(id, sizes.get(id) + 1);
+            } else {
+                id = sizes.size();
+                classes.put(key, id);
+                sizes.add(1);
+            }
+            classOf[row] = id;
+        }
+
+        // Distributions of sensitive values
+        final int[][][] distributions = new int[sizes.size()][sensitiveSizes.length][];
+        for (int s = 0; s < sensitiveSizes.length; s++) {
+            final LongIntOpenHashMap pairs = new LongIntOpenHashMap();
+            for (int row = 0; row < rows; row++) {
+                pairs.putOrAdd(((long) classOf[row] * sensitiveSizes[s]) + sensitiveCodes[s][row], 1, 1);
+            }
+            final long[] keys = pairs.keys().toArray();
+            Arrays.sort(keys);
+            int start = 0;
+            for (int i = 1; i <= keys.length; i++) {
+                if ((i == keys.length) || ((keys[i] / sensitiveSizes[s]) != (keys[start] / sensitiveSizes[s]))) {
+                    final int[] frequencies = new int[i - start];
+                    for (int j = start; j < i; j++) {
+                        frequencies[j - start] = pairs.get(keys[j]);
+                    }
+                    distributions[(int) (keys[start] / sensitiveSizes[s])][s] = sortDescending(frequencies);
+                    start = i;
+                }
+            }
+        }
+        return new Summary(sizes.toArray(), distributions);
+    }
+}
@@ -0,0 +1,830 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A format in which the anonymized data is written. Rows are read from the iterator in the calling thread and encoded
+ * in blocks, which are encoded in parallel and written in order by a separate thread, so that reading, encoding and
+ * writing overlap. Formats must therefore encode blocks independently of each other.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public abstract class OutputFormat {
+
+    /**
+     * Arrow IPC streaming format, in which all columns are nullable UTF-8 strings. The schema is followed by one record
+     * batch per block of rows and by the end-of-stream marker:
+     *
+     * <pre>
+     * stream  := message(Schema) message(RecordBatch)* 0xFFFFFFFF 0:i32
+     * message := 0xFFFFFFFF length:i32 metadata{length} body
+     * </pre>
+     *
+     * The metadata is a FlatBuffer with the tables of Schema.fbs and Message.fbs of the Arrow columnar format, metadata
+     * version 5. The body of a record batch contains the validity bitmap, the offsets and the values of each column.
+     * All numbers are little-endian, and the metadata and all buffers are padded to multiples of eight bytes.
+     */
+    private static class Arrow extends OutputFormat {
+
+        /**
+         * A builder of a FlatBuffer, which lays out each object before the objects it references, so that all
+         * references point forward.
+         */
+        private static class FlatBuffer {
+
+            /** The bytes. */
+            private byte[] bytes = new byte[256];
+
+            /** The number of bytes. */
+            private int    size;
+
+            /**
+             * Appends zeros, until the given number of bytes after the end is aligned.
+             *
+             * @param alignment the alignment
+             * @param offset the number of bytes
+             */
+            private void align(final int alignment, final int offset) {
+                while (((size + offset) % alignment) != 0) {
+                    put(1, 0);
+                }
+            }
+
+            /**
+             * Returns the bytes of a buffer with the given root table, padded to a multiple of eight bytes.
+             *
+             * @param root the root table
+             * @return the bytes
+             */
+            private byte[] finish(final Table root) {
+                put(4, 0);
+                set(0, 4, write(root));
+                align(8, 0);
+                return Arrays.copyOf(bytes, size);
+            }
+
+            /**
+             * Appends a number.
+             *
+             * @param length the length in bytes
+             * @param value the value
+             * @return the position
+             */
+            private int put(final int length, final long value) {
+                if ((size + length) > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+                }
+                size += length;
+                set(size - length, length, value);
+                return size - length;
+            }
+
+            /**
+             * Sets a number.
+             *
+             * @param position the position
+             * @param length the length in bytes
+             * @param value the value
+             */
+            private void set(final int position, final int length, final long value) {
+                for (int i = 0; i < length; i++) {
+                    bytes[position + i] = (byte) (value >>> (8 * i));
+                }
+            }
+
+            /**
+             * Appends an object, i.e. a table, a string, a vector of tables or a vector of structs of two longs.
+             *
+             * @param object the object
+             * @return the position
+             */
+            private int write(final Object object) {
+                if (object instanceof Table) {
+                    return write((Table) object);
+                } else if (object instanceof String) {
+                    final byte[] string = ((String) object).getBytes(UTF8);
+                    align(4, 0);
+                    final int position = put(4, string.length);
+                    for (final byte b : string) {
+                        put(1, b);
+                    }
+                    put(1, 0);
+                    return position;
+                } else if (object instanceof Table[]) {
+                    final Table[] tables = (Table[]) object;
+                    align(4, 0);
+                    final int position = put(4, tables.length);
+                    for (int i = 0; i < tables.length; i++) {
+                        put(4, 0);
+                    }
+                    for (int i = 0; i < tables.length; i++) {
+                        final int element = position + 4 + (4 * i);
+                        set(element, 4, write(tables[i]) - element);
+                    }
+                    return position;
+                } else {
+                    final long[] structs = (long[]) object;
+                    align(8, 4);
+                    final int position = put(4, structs.length / 2);
+                    for (final long value : structs) {
+                        put(8, value);
+                    }
+                    return position;
+                }
+            }
+
+            /**
+             * Appends a table, preceded by its vtable.
+             *
+             * @param table the table
+             * @return the position
+             */
+            private int write(final Table table) {
+
+                // Lay out the fields by decreasing size after the offset of the vtable
+                final int fields = table.sizes.length;
+                final int[] offsets = new int[fields];
+                int length = 4;
+                int alignment = 4;
+                for (int width = 8; width > 0; width /= 2) {
+                    for (int i = 0; i < fields; i++) {
+                        if (table.sizes[i] == width) {
+                            length = ((length + width) - 1) / width * width;
+                            offsets[i] = length;
+                            length += width;
+                            alignment = Math.max(alignment, width);
+                        }
+                    }
+                }
+
+                // Write the vtable and the table
+                align(2, 0);
+                final int vtable = put(2, 4 + (2 * fields));
+                put(2, length);
+                for (int i = 0; i < fields; i++) {
+                    put(2, offsets[i]);
+                }
+                align(alignment, 0);
+                final int position = put(4, 0);
+                set(position, 4, position - vtable);
+                while (size < (position + length)) {
+                    put(1, 0);
+                }
+                for (int i = 0; i < fields; i++) {
+                    if ((table.sizes[i] != 0) && (table.references[i] == null)) {
+                        set(position + offsets[i], table.sizes[i], table.values[i]);
+                    }
+                }
+
+                // Write the referenced objects
+                for (int i = 0; i < fields; i++) {
+                    if (table.references[i] != null) {
+                        final int field = position + offsets[i];
+                        set(field, 4, write(table.references[i]) - field);
+                    }
+                }
+                return position;
+            }
+        }
+
+        /**
+         * A table of a FlatBuffer, whose fields are either numbers or references to other objects.
+         */
+        private static class Table {
+
+            /** The sizes of the fields in bytes, or 0 for absent fields. */
+            private final int[]    sizes;
+
+            /** The numbers. */
+            private final long[]   values;
+
+            /** The referenced objects. */
+            private final Object[] references;
+
+            /**
+             * Creates a new table.
+             *
+             * @param fields the number of fields
+             */
+            private Table(final int fields) {
+                this.sizes = new int[fields];
+                this.values = new long[fields];
+                this.references = new Object[fields];
+            }
+
+            /**
+             * Sets a field to a number.
+             *
+             * @param field the index of the field
+             * @param size the size in bytes
+             * @param value the value
+             * @return this table
+             */
+            private Table number(final int field, final int size, final long value) {
+                sizes[field] = size;
+                values[field] = value;
+                return this;
+            }
+
+            /**
+             * Sets a field to a reference.
+             *
+             * @param field the index of the field
+             * @param object the object
+             * @return this table
+             */
+            private Table reference(final int field, final Object object) {
+                sizes[field] = 4;
+                references[field] = object;
+                return this;
+            }
+        }
+
+        /** The metadata version, i.e. V5. */
+        private static final int METADATA_VERSION = 4;
+
+        /** The type of Schema messages. */
+        private static final int SCHEMA           = 1;
+
+        /** The type of RecordBatch messages. */
+        private static final int RECORD_BATCH     = 3;
+
+        /** The type of UTF-8 fields. */
+        private static final int UTF8_TYPE        = 5;
+
+        /** The continuation marker which starts a message. */
+        private static final int CONTINUATION     = 0xFFFFFFFF;
+
+        @Override
+        protected byte[] encode(final String[] header, final String[][] rows) throws IOException {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(rows.length * header.length * 8);
+            final long[] nodes = new long[2 * header.length];
+            final long[] buffers = new long[6 * header.length];
+            final int[] offsets = new int[rows.length + 1];
+            for (int column = 0; column < header.length; column++) {
+                final byte[] validity = new byte[(rows.length + 7) / 8];
+                final ByteArrayOutputStream values = new ByteArrayOutputStream(rows.length * 8);
+                int nulls = 0;
+                for (int row = 0; row < rows.length; row++) {
+                    final String value = rows[row][column];
+                    if (value == null) {
+                        nulls++;
+                    } else {
+                        validity[row / 8] |= 1 << (row % 8);
+                        values.write(value.getBytes(UTF8));
+                    }
+                    offsets[row + 1] = values.size();
+                }
+                nodes[2 * column] = rows.length;
+                nodes[(2 * column) + 1] = nulls;
+
+                // The validity bitmap may be omitted, if there are no nulls
+                final byte[] offsetBytes = new byte[4 * offsets.length];
+                for (int i = 0; i < offsets.length; i++) {
+                    setInt(offsetBytes, 4 * i, offsets[i]);
+                }
+                writeBuffer(body, buffers, 3 * column, nulls == 0 ? new byte[0] : validity);
+                writeBuffer(body, buffers, (3 * column) + 1, offsetBytes);
+                writeBuffer(body, buffers, (3 * column) + 2, values.toByteArray());
+            }
+            final Table batch = new Table(3).number(0, 8, rows.length).reference(1, nodes).reference(2, buffers);
+            final ByteArrayOutputStream message = new ByteArrayOutputStream(body.size() + 256);
+            writeMessage(message, RECORD_BATCH, batch, body);
+            return message.toByteArray();
+        }
+
+        @Override
+        protected void writeFooter(final OutputStream out, final long rows) throws IOException {
+            final byte[] end = new byte[8];
+            setInt(end, 0, CONTINUATION);
+            out.write(end);
+        }
+
+        @Override
+        protected void writeHeader(final OutputStream out, final String[] header) throws IOException {
+            final Table[] fields = new Table[header.length];
+            for (int i = 0; i < header.length; i++) {
+                fields[i] = new Table(6).reference(0, header[i])
+                                        .number(1, 1, 1)
+                                        .number(2, 1, UTF8_TYPE)
+                                        .reference(3, new Table(0))
+                                        .reference(5, new Table[0]);
+            }
+            writeMessage(out, SCHEMA, new Table(2).reference(1, fields), new ByteArrayOutputStream());
+        }
+
+        /**
+         * Sets a little-endian integer.
+         *
+         * @param bytes the bytes
+         * @param position the position
+         * @param value the value
+         */
+        private void setInt(final byte[] bytes, final int position, final int value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[position + i] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        /**
+         * Appends a buffer to the body, padded to a multiple of eight bytes, and records its offset and length.
+         *
+         * @param body the body
+         * @param buffers the offsets and lengths of the buffers
+         * @param index the index of the buffer
+         * @param buffer the buffer
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void writeBuffer(final ByteArrayOutputStream body, final long[] buffers, final int index, final byte[] buffer) throws IOException {
+            buffers[2 * index] = body.size();
+            buffers[(2 * index) + 1] = buffer.length;
+            body.write(buffer);
+            body.write(new byte[(8 - (buffer.length % 8)) % 8]);
+        }
+
+        /**
+         * Writes a message.
+         *
+         * @param out the out
+         * @param type the type of the header
+         * @param header the header
+         * @param body the body
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void writeMessage(final OutputStream out, final int type, final Table header, final ByteArrayOutputStream body) throws IOException {
+            final Table message = new Table(4).number(0, 2, METADATA_VERSION)
+                                              .number(1, 1, type)
+                                              .reference(2, header)
+                                              .number(3, 8, body.size());
+            final byte[] metadata = new FlatBuffer().finish(message);
+            final byte[] prefix = new byte[8];
+            setInt(prefix, 0, CONTINUATION);
+            setInt(prefix, 4, metadata.length);
+            out.write(prefix);
+            out.write(metadata);
+            body.writeTo(out);
+        }
+    }
+
+    /**
+     * A block of rows, which is encoded by a task.
+     */
+    private static class Block extends FutureTask<byte[]> {
+
+        /** The number of rows. */
+        private final int size;
+
+        /**
+         * Creates a new block.
+         *
+         * @param encoder the task which encodes the rows
+         * @param size the number of rows
+         */
+        private Block(final Callable<byte[]> encoder, final int size) {
+            super(encoder);
+            this.size = size;
+        }
+    }
+
+    /**
+     * Columnar binary format. Each block of rows is stored as a row group, in which each column is dictionary-encoded:
+     *
+     * <pre>
+     * file   := "ARXC" version:u8 columns:i32 string{columns} group* 0:i32 rows:i64
+     * group  := rows:i32 column{columns}
+     * column := distinct:i32 string{distinct} width:u8 code{rows}
+     * string := length:i32 utf8{length}
+     * </pre>
+     *
+     * Codes are indices into the dictionary of the column, stored with the given width of 1, 2 or 4 bytes. All numbers
+     * are big-endian.
+     */
+    private static class Columnar extends OutputFormat {
+
+        /** The version. */
+        private static final int VERSION = 1;
+
+        @Override
+        protected byte[] encode(final String[] header, final String[][] rows) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows.length * header.length * 2);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(rows.length);
+            final int[] codes = new int[rows.length];
+            for (int column = 0; column < header.length; column++) {
+
+                // Build dictionary
+                final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+                final ByteArrayOutputStream values = new ByteArrayOutputStream();
+                final DataOutputStream valuesOut = new DataOutputStream(values);
+                for (int row = 0; row < rows.length; row++) {
+                    final String value = rows[row][column] == null ? "" : rows[row][column];
+                    Integer code = dictionary.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionary.put(value, code);
+                        writeString(valuesOut, value);
+                    }
+                    codes[row] = code;
+                }
+
+                // Write dictionary and codes
+                out.writeInt(dictionary.size());
+                values.writeTo(out);
+                final int width = dictionary.size() <= 0x100 ? 1 : (dictionary.size() <= 0x10000 ? 2 : 4);
+                out.writeByte(width);
+                for (int row = 0; row < rows.length; row++) {
+                    switch (width) {
+                    case 1:
+                        out.writeByte(codes[row]);
+                        break;
+                    case 2:
+                        out.writeShort(codes[row]);
+                        break;
+                    default:
+                        out.writeInt(codes[row]);
+                    }
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        protected void writeFooter(final OutputStream out, final long rows) throws IOException {
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(0);
+            data.writeLong(rows);
+            data.flush();
+        }
+
+        @Override
+        protected void writeHeader(final OutputStream out, final String[] header) throws IOException {
+            final DataOutputStream data = new DataOutputStream(out);
+            data.write(new byte[] { 'A', 'R', 'X', 'C' });
+            data.writeByte(VERSION);
+            data.writeInt(header.length);
+            for (final String name : header) {
+                writeString(data, name);
+            }
+            data.flush();
+        }
+
+        /**
+         * Writes a string.
+         *
+         * @param out the out
+         * @param value the value
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void writeString(final DataOutputStream out, final String value) throws IOException {
+            final byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Delimiter-separated values as defined in RFC 4180. The first line is the header.
+     */
+    private static class Delimited extends OutputFormat {
+
+        /** The writer, which is shared by all blocks, so that each distinct value is escaped only once. */
+        private final CsvWriter writer;
+
+        /**
+         * Creates a new format.
+         *
+         * @param separator the separator
+         */
+        private Delimited(final char separator) {
+            this.writer = new CsvWriter(separator);
+        }
+
+        @Override
+        protected byte[] encode(final String[] header, final String[][] rows) {
+            final StringBuilder builder = new StringBuilder(rows.length * header.length * 8);
+            for (final String[] row : rows) {
+                writer.appendLine(builder, row);
+            }
+            return builder.toString().getBytes(UTF8);
+        }
+
+        @Override
+        protected void writeHeader(final OutputStream out, final String[] header) throws IOException {
+            final StringBuilder builder = new StringBuilder();
+            writer.appendLine(builder, header);
+            out.write(builder.toString().getBytes(UTF8));
+        }
+    }
+
+    /**
+     * JSON Lines. Each row is written as an object whose keys are the attribute names.
+     */
+    private static class JsonLines extends OutputFormat {
+
+        @Override
+        protected byte[] encode(final String[] header, final String[][] rows) {
+            final String[] keys = new String[header.length];
+            for (int i = 0; i < header.length; i++) {
+                final StringBuilder key = new StringBuilder();
+                key.append(i == 0 ? '{' : ',');
+                appendJson(key, header[i]);
+                keys[i] = key.append(':').toString();
+            }
+            final StringBuilder builder = new StringBuilder(rows.length * header.length * 16);
+            for (final String[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    builder.append(keys[i]);
+                    appendJson(builder, row[i]);
+                }
+                builder.append(row.length == 0 ? "{}\n" : "}\n");
+            }
+            return builder.toString().getBytes(UTF8);
+        }
+    }
+
+    /**
+     * The stage which writes encoded blocks in the order in which they have been enqueued.
+     */
+    private static class Writer extends Thread {
+
+        /** The queue of blocks, which bounds the number of blocks which are encoded but not yet written. */
+        private final BlockingQueue<Block> queue;
+
+        /** The stream. */
+        private final OutputStream         out;
+
+        /** The progress monitor, or null. */
+        private final ProgressMonitor      monitor;
+
+        /** The error, if any. */
+        private volatile IOException       error;
+
+        /**
+         * Creates a new writer.
+         *
+         * @param out the stream
+         * @param capacity the maximal number of queued blocks
+         * @param monitor the progress monitor, or null
+         */
+        private Writer(final OutputStream out, final int capacity, final ProgressMonitor monitor) {
+            super("arx-output-writer");
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<Block>(capacity);
+            this.out = out;
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    for (Block block = queue.take(); block != END; block = queue.take()) {
+                        out.write(block.get());
+                        if (monitor != null) {
+                            monitor.rowsWritten(block.size);
+                        }
+                    }
+                    return;
+                } catch (final ExecutionException e) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                } catch (final IOException e) {
+                    error = e;
+                }
+                // Drain, so that the producer is not blocked
+                while (queue.take() != END) {
+                    // Empty by design
+                }
+            } catch (final InterruptedException e) {
+                // The producer has been abandoned
+            }
+        }
+
+        /**
+         * Enqueues a block, or the end marker.
+         *
+         * @param block the block
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void put(final Block block) throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            try {
+                queue.put(block);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while writing output", e);
+            }
+        }
+    }
+
+    /** The names of the supported formats. */
+    public static final String[]   FORMATS    = { "CSV", "JSONL", "COLUMNAR", "ARROW" };
+
+    /** The charset. */
+    protected static final Charset UTF8       = Charset.forName("UTF-8");
+
+    /** The number of rows per block. */
+    private static final int       BLOCK_SIZE = 4096;
+
+    /** The marker for the end of the data. */
+    private static final Block     END        = new Block(new Callable<byte[]>() {
+                                                  @Override
+                                                  public byte[] call() {
+                                                      return new byte[0];
+                                                  }
+                                              }, 0);
+
+    /**
+     * Appends the given string as a JSON string.
+     *
+     * @param builder the builder
+     * @param value the value
+     */
+    static void appendJson(final StringBuilder builder, final String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                builder.append("\\\"");
+                break;
+            case '\\':
+                builder.append("\\\\");
+                break;
+            case '\n':
+                builder.append("\\n");
+                break;
+            case '\r':
+                builder.append("\\r");
+                break;
+            case '\t':
+                builder.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * Returns the format with the given name.
+     *
+     * @param name the name
+     * @param separator the separator, used for CSV
+     * @return the format
+     */
+    public static OutputFormat forName(final String name, final char separator) {
+        switch (name.trim().toUpperCase(Locale.ENGLISH)) {
+        case "CSV":
+            return new Delimited(separator);
+        case "JSONL":
+            return new JsonLines();
+        case "COLUMNAR":
+            return new Columnar();
+        case "ARROW":
+            return new Arrow();
+        default:
+            throw new IllegalArgumentException("output format unknown: " + name + ", possible values " + Arrays.toString(FORMATS));
+        }
+    }
+
+    /**
+     * Writes the given rows, of which the first one is the header.
+     *
+     * @param rows the rows
+     * @param out the stream, which is not closed
+     * @param threads the number of threads used for encoding
+     * @param monitor the progress monitor, or null
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(final Iterator<String[]> rows, final OutputStream out, final int threads, final ProgressMonitor monitor) throws IOException {
+        if (!rows.hasNext()) {
+            return;
+        }
+        final String[] header = rows.next();
+        final OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        writeHeader(buffered, header);
+
+        final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        final Writer writer = new Writer(buffered, 2 * Math.max(1, threads), monitor);
+        writer.start();
+        long total = 0;
+        try {
+            while (rows.hasNext()) {
+                final String[][] block = new String[BLOCK_SIZE][];
+                int size = 0;
+                while ((size < BLOCK_SIZE) && rows.hasNext()) {
+                    block[size++] = rows.next();
+                }
+                final String[][] filled = size == BLOCK_SIZE ? block : Arrays.copyOf(block, size);
+                total += size;
+                final Block encoded = new Block(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return encode(header, filled);
+                    }
+                }, size);
+                // Encode in parallel, while at most two blocks per thread are pending
+                if (executor == null) {
+                    encoded.run();
+                } else {
+                    executor.execute(encoded);
+                }
+                writer.put(encoded);
+            }
+            writer.put(END);
+            writer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing output", e);
+        } finally {
+            writer.interrupt();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        if (writer.error != null) {
+            throw writer.error;
+        }
+        writeFooter(buffered, total);
+        buffered.flush();
+    }
+
+    /**
+     * Encodes a block of rows.
+     *
+     * @param header the header
+     * @param rows the rows
+     * @return the bytes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    protected abstract byte[] encode(String[] header, String[][] rows) throws IOException;
+
+    /**
+     * Writes the footer.
+     *
+     * @param out the out
+     * @param rows the number of rows, excluding the header
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    protected void writeFooter(final OutputStream out, final long rows) throws IOException {
+        // Empty by default
+    }
+
+    /**
+     * Writes the header.
+     *
+     * @param out the out
+     * @param header the header
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    protected void writeHeader(final OutputStream out, final String[] header) throws IOException {
+        // Empty by default
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+import org.deidentifier.arx.DataHandle;
+import org.deidentifier.arx.cli.CommandLineInterface.Metric;
+
+/**
+ * Statistics of a transformation of the data, which are collected in a single pass over the rows of the input and of
+ * the output, which is split among several threads. From these, the equivalence classes, the suppressed rows, the
+ * prosecutor re-identification risk and the information loss under each {@link Metric} are derived. Information loss is
+ * computed independently of the metrics of ARX, following their definitions:
+ * <ul>
+ * <li>HEIGHT: the sum of the generalization levels.</li>
+ * <li>PREC: the average of level / height over all quasi-identifiers. NMPREC counts suppressed cells as fully
+ * generalized.</li>
+ * <li>DM: the sum of the squared sizes of the classes, where each suppressed row is penalized with the number of rows.
+ * DMSTAR treats the suppressed rows as a single class.</li>
+ * <li>AECS: the number of rows divided by the number of classes.</li>
+ * <li>ENTROPY: the non-uniform entropy of the generalization defined by the hierarchies, i.e. the sum of
+ * -log2(P(original value | generalized value)) over all cells. NMENTROPY uses the values of the output, including
+ * suppressed cells.</li>
+ * </ul>
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class OutputStatistics {
+
+    /**
+     * The statistics of a range of rows.
+     */
+    private static class Partial {
+
+        /** The sizes of the equivalence classes, by the values of the quasi-identifiers. */
+        private final Map<String, int[]>                    classes = new HashMap<String, int[]>();
+
+        /** For each quasi-identifier, the frequencies of generalized values by original value. */
+        private final List<Map<String, Map<String, int[]>>> values  = new ArrayList<Map<String, Map<String, int[]>>>();
+
+        /** The number of suppressed rows. */
+        private int                                         suppressed;
+
+        /**
+         * Creates new statistics.
+         *
+         * @param columns the number of quasi-identifiers
+         */
+        private Partial(final int columns) {
+            for (int i = 0; i < columns; i++) {
+                values.add(new HashMap<String, Map<String, int[]>>());
+            }
+        }
+
+        /**
+         * Merges the given statistics into these.
+         *
+         * @param other the other
+         */
+        private void merge(final Partial other) {
+            suppressed += other.suppressed;
+            for (final Entry<String, int[]> entry : other.classes.entrySet()) {
+                add(classes, entry.getKey(), entry.getValue()[0]);
+            }
+            for (int i = 0; i < values.size(); i++) {
+                for (final Entry<String, Map<String, int[]>> original : other.values.get(i).entrySet()) {
+                    Map<String, int[]> generalized = values.get(i).get(original.getKey());
+                    if (generalized == null) {
+                        values.get(i).put(original.getKey(), original.getValue());
+                    } else {
+                        for (final Entry<String, int[]> entry : original.getValue().entrySet()) {
+                            add(generalized, entry.getKey(), entry.getValue()[0]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** The separator of values in the key of a class. */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Adds to a frequency.
+     *
+     * @param counts the frequencies
+     * @param key the key
+     * @param count the count to add
+     */
+    private static void add(final Map<String, int[]> counts, final String key, final int count) {
+        final int[] value = counts.get(key);
+        if (value == null) {
+            counts.put(key, new int[] { count });
+        } else {
+            value[0] += count;
+        }
+    }
+
+    /**
+     * Returns the indices of the given attributes.
+     *
+     * @param handle the handle
+     * @param attributes the attributes
+     * @return the indices
+     */
+    private static int[] getColumns(final DataHandle handle, final String[] attributes) {
+        final int[] columns = new int[attributes.length];
+        outer: for (int i = 0; i < attributes.length; i++) {
+            for (int column = 0; column < handle.getNumColumns(); column++) {
+                if (handle.getAttributeName(column).equals(attributes[i])) {
+                    columns[i] = column;
+                    continue outer;
+                }
+            }
+            throw new IllegalArgumentException("attribute not found in data: " + attributes[i]);
+        }
+        return columns;
+    }
+
+    /** The quasi-identifiers. */
+    private final String[]                             attributes;
+
+    /** The generalization levels. */
+    private final int[]                                levels;
+
+    /** The heights of the hierarchies. */
+    private final int[]                                heights;
+
+    /** The hierarchies. */
+    private final Map<String, Hierarchy>               hierarchies;
+
+    /** The number of rows. */
+    private final int                                  rows;
+
+    /** The number of suppressed rows. */
+    private final int                                  suppressed;
+
+    /** The number of classes by size, excluding suppressed rows. */
+    private final SortedMap<Integer, Integer>          sizes = new TreeMap<Integer, Integer>();
+
+    /** For each quasi-identifier, the frequencies of generalized values by original value. */
+    private final List<Map<String, Map<String, int[]>>> values;
+
+    /**
+     * Collects the statistics of the given transformation.
+     *
+     * @param input the input
+     * @param output the output
+     * @param attributes the quasi-identifiers
+     * @param levels the generalization level of each quasi-identifier
+     * @param hierarchies the hierarchies of the quasi-identifiers
+     * @param threads the number of threads
+     */
+    public OutputStatistics(final DataHandle input,
+                            final DataHandle output,
+                            final String[] attributes,
+                            final int[] levels,
+                            final Map<String, Hierarchy> hierarchies,
+                            final int threads) {
+        if (input.getNumRows() != output.getNumRows()) {
+            throw new IllegalArgumentException("input and output differ in the number of rows");
+        }
+        this.attributes = attributes;
+        this.levels = levels;
+        this.hierarchies = hierarchies;
+        this.rows = input.getNumRows();
+        this.heights = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            final String[][] hierarchy = hierarchies.get(attributes[i]).getHierarchy();
+            heights[i] = hierarchy.length == 0 ? 0 : hierarchy[0].length - 1;
+        }
+
+        // Single pass, split into ranges of rows
+        final int[] inputColumns = getColumns(input, attributes);
+        final int[] outputColumns = getColumns(output, attributes);
+        final int ranges = Math.max(1, Math.min(threads, rows / 1024));
+        final ExecutorService executor = Executors.newFixedThreadPool(ranges);
+        final List<Future<Partial>> futures = new ArrayList<Future<Partial>>();
+        for (int i = 0; i < ranges; i++) {
+            final int from = (int) (((long) rows * i) / ranges);
+            final int to = (int) (((long) rows * (i + 1)) / ranges);
+            futures.add(executor.submit(new Callable<Partial>() {
+                @Override
+                public Partial call() {
+                    return collect(input, output, inputColumns, outputColumns, from, to);
+                }
+            }));
+        }
+        final Partial result = new Partial(attributes.length);
+        try {
+            for (final Future<Partial> future : futures) {
+                result.merge(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while computing statistics", e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("failed to compute statistics: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        this.suppressed = result.suppressed;
+        this.values = result.values;
+        for (final int[] size : result.classes.values()) {
+            final Integer count = sizes.get(size[0]);
+            sizes.put(size[0], count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Returns the quasi-identifiers.
+     *
+     * @return the attributes
+     */
+    public String[] getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the number of equivalence classes by size, excluding suppressed rows.
+     *
+     * @return the sizes
+     */
+    public SortedMap<Integer, Integer> getClassSizes() {
+        return sizes;
+    }
+
+    /**
+     * Returns the heights of the hierarchies.
+     *
+     * @return the heights
+     */
+    public int[] getHeights() {
+        return heights;
+    }
+
+    /**
+     * Returns the information loss under the given metric.
+     *
+     * @param metric the metric
+     * @return the information loss
+     */
+    public double getInformationLoss(final Metric metric) {
+        switch (metric) {
+        case HEIGHT:
+            double height = 0d;
+            for (final int level : levels) {
+                height += level;
+            }
+            return height;
+        case PREC:
+        case NMPREC:
+            if (attributes.length == 0) {
+                return 0d;
+            }
+            double precision = 0d;
+            for (int i = 0; i < attributes.length; i++) {
+                precision += heights[i] == 0 ? 0d : (double) levels[i] / (double) heights[i];
+            }
+            if ((metric == Metric.NMPREC) && (rows > 0)) {
+                return ((precision * (rows - suppressed)) + ((double) attributes.length * suppressed)) / ((double) attributes.length * rows);
+            }
+            return precision / attributes.length;
+        case DM:
+        case DMSTAR:
+            double discernability = metric == Metric.DM ? (double) suppressed * (double) rows : (double) suppressed * (double) suppressed;
+            for (final Entry<Integer, Integer> entry : sizes.entrySet()) {
+                discernability += (double) entry.getKey() * (double) entry.getKey() * entry.getValue();
+            }
+            return discernability;
+        case AECS:
+            final int classes = getNumClasses() + (suppressed > 0 ? 1 : 0);
+            return classes == 0 ? 0d : (double) rows / (double) classes;
+        case ENTROPY:
+        case NMENTROPY:
+            double entropy = 0d;
+            for (int i = 0; i < attributes.length; i++) {
+                entropy += metric == Metric.ENTROPY ? getMonotonicEntropy(i) : getEntropy(values.get(i));
+            }
+            return entropy;
+        default:
+            throw new IllegalArgumentException("metric unknown: " + metric);
+        }
+    }
+
+    /**
+     * Returns the generalization levels.
+     *
+     * @return the levels
+     */
+    public int[] getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the number of equivalence classes, excluding suppressed rows.
+     *
+     * @return the number of classes
+     */
+    public int getNumClasses() {
+        int classes = 0;
+        for (final int count : sizes.values()) {
+            classes += count;
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getNumRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of suppressed rows.
+     *
+     * @return the number of suppressed rows
+     */
+    public int getNumSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * Returns the average prosecutor re-identification risk of the rows which are not suppressed.
+     *
+     * @return the risk
+     */
+    public double getAverageRisk() {
+        return rows == suppressed ? 0d : (double) getNumClasses() / (double) (rows - suppressed);
+    }
+
+    /**
+     * Returns the highest prosecutor re-identification risk of a row which is not suppressed.
+     *
+     * @return the risk
+     */
+    public double getHighestRisk() {
+        return sizes.isEmpty() ? 0d : 1d / sizes.firstKey();
+    }
+
+    /**
+     * Returns the number of rows, which are not suppressed, whose prosecutor re-identification risk exceeds the given
+     * threshold.
+     *
+     * @param threshold the threshold
+     * @return the number of rows
+     */
+    public int getNumRowsAtRisk(final double threshold) {
+        int count = 0;
+        for (final Entry<Integer, Integer> entry : sizes.entrySet()) {
+            if ((1d / entry.getKey()) > threshold) {
+                count += entry.getKey() * entry.getValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the statistics of a range of rows.
+     *
+     * @param input the input
+     * @param output the output
+     * @param inputColumns the columns of the quasi-identifiers in the input
+     * @param outputColumns the columns of the quasi-identifiers in the output
+     * @param from the first row
+     * @param to the row after the last row
+     * @return the statistics
+     */
+    private Partial collect(final DataHandle input,
+                            final DataHandle output,
+                            final int[] inputColumns,
+                            final int[] outputColumns,
+                            final int from,
+                            final int to) {
+        final Partial partial = new Partial(attributes.length);
+        final StringBuilder key = new StringBuilder();
+        for (int row = from; row < to; row++) {
+            final boolean outlier = output.isOutlier(row);
+            key.setLength(0);
+            for (int i = 0; i < attributes.length; i++) {
+                final String original = input.getValue(row, inputColumns[i]);
+                final String generalized = output.getValue(row, outputColumns[i]);
+                Map<String, int[]> counts = partial.values.get(i).get(original);
+                if (counts == null) {
+                    counts = new HashMap<String, int[]>(4);
+                    partial.values.get(i).put(original, counts);
+                }
+                add(counts, generalized, 1);
+                key.append(generalized).append(SEPARATOR);
+            }
+            if (outlier) {
+                partial.suppressed++;
+            } else {
+                add(partial.classes, key.toString(), 1);
+            }
+        }
+        return partial;
+    }
+
+    /**
+     * Returns the non-uniform entropy of the given frequencies of generalized values by original value.
+     *
+     * @param frequencies the frequencies
+     * @return the entropy
+     */
+    private double getEntropy(final Map<String, Map<String, int[]>> frequencies) {
+        final Map<String, int[]> totals = new HashMap<String, int[]>();
+        for (final Map<String, int[]> counts : frequencies.values()) {
+            for (final Entry<String, int[]> entry : counts.entrySet()) {
+                add(totals, entry.getKey(), entry.getValue()[0]);
+            }
+        }
+        double entropy = 0d;
+        for (final Map<String, int[]> counts : frequencies.values()) {
+            for (final Entry<String, int[]> entry : counts.entrySet()) {
+                final double count = entry.getValue()[0];
+                entropy -= count * (Math.log(count / totals.get(entry.getKey())[0]) / Math.log(2d));
+            }
+        }
+        return entropy;
+    }
+
+    /**
+     * Returns the non-uniform entropy of the given quasi-identifier as generalized by its hierarchy, ignoring
+     * suppression.
+     *
+     * @param index the index of the quasi-identifier
+     * @return the entropy
+     */
+    private double getMonotonicEntropy(final int index) {
+        final Map<String, String> generalization = new HashMap<String, String>();
+        for (final String[] row : hierarchies.get(attributes[index]).getHierarchy()) {
+            generalization.put(row[0], row[Math.min(levels[index], row.length - 1)]);
+        }
+        final Map<String, Map<String, int[]>> frequencies = new HashMap<String, Map<String, int[]>>();
+        for (final Entry<String, Map<String, int[]>> entry : values.get(index).entrySet()) {
+            int count = 0;
+            for (final int[] value : entry.getValue().values()) {
+                count += value[0];
+            }
+            final String generalized = generalization.get(entry.getKey());
+            final Map<String, int[]> counts = new HashMap<String, int[]>(2);
+            counts.put(generalized != null ? generalized : entry.getKey(), new int[] { count });
+            frequencies.put(entry.getKey(), counts);
+        }
+        return getEntropy(frequencies);
+    }
+}
@@ -1,5 +1,7 @@
 package org.deidentifier.arx.cli;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -33,6 +35,41 @@ public class ParseUtil {
         }
     }
 
+    /**
+     * Splits the splitString by means of the separator, ignoring separators within parentheses. Escaping via backslash
+     * allowed, the escape character will be removed.
+     *
+     * @param splitString the split string
+     * @param separator the separator
+     * @return the string[]
+     */
+    public static String[] splitEscapedStringOutsideParentheses(final String splitString, final char separator) {
+        final List<String> result = new ArrayList<String>();
+        if ((splitString != null) && (splitString.length() > 0)) {
+            final StringBuilder current = new StringBuilder();
+            int depth = 0;
+            for (int i = 0; i < splitString.length(); i++) {
+                final char c = splitString.charAt(i);
+                if ((c == '\\') && ((i + 1) < splitString.length()) && (splitString.charAt(i + 1) == separator)) {
+                    current.append(separator);
+                    i++;
+                } else if ((c == separator) && (depth == 0)) {
+                    result.add(current.toString());
+                    current.setLength(0);
+                } else {
+                    if (c == '(') {
+                        depth++;
+                    } else if ((c == ')') && (depth > 0)) {
+                        depth--;
+                    }
+                    current.append(c);
+                }
+            }
+            result.add(current.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
     /**
      * Escapes the given string. All occurrences of separator will be escaped via a backslash.
      *
@@ -0,0 +1,358 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the anonymized data into several files, each of which is written by its own thread. Rows are distributed in
+ * blocks round-robin, or by the hash of the value of an attribute, so that all rows with the same value end up in the
+ * same file. Each file is a complete file of the given format, including the header. A manifest describing all files
+ * is written in JSON next to them.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class PartitionedOutput {
+
+    /**
+     * A partition, which is written by its own thread.
+     */
+    private class Partition extends Thread implements Iterator<String[]> {
+
+        /** The queue of blocks. */
+        private final BlockingQueue<String[][]> queue    = new ArrayBlockingQueue<String[][]>(QUEUE_SIZE);
+
+        /** The file. */
+        private final File                      file;
+
+        /** The distinct values of the partitioning attribute. */
+        private final Set<String>               values   = new LinkedHashSet<String>();
+
+        /** The current block. */
+        private String[][]                      block;
+
+        /** The position in the current block, or -1 before the header. */
+        private int                             position = -1;
+
+        /** The number of rows written. */
+        private long                            rows;
+
+        /** Whether the end of the data has been reached. */
+        private boolean                         finished;
+
+        /** The error, if any. */
+        private volatile Exception              error;
+
+        /**
+         * Creates a new partition.
+         *
+         * @param file the file
+         */
+        private Partition(final File file) {
+            super("arx-output-" + file.getName());
+            this.file = file;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position == -1) {
+                return true;
+            }
+            while (!finished && ((block == null) || (position == block.length))) {
+                try {
+                    block = queue.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                position = 0;
+                finished = block.length == 0;
+            }
+            return !finished;
+        }
+
+        @Override
+        public String[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (position == -1) {
+                position = 0;
+                return header;
+            }
+            rows++;
+            return block[position++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void run() {
+            try {
+                final OutputStream out = new FileOutputStream(file);
+                try {
+                    format.write(this, out, 1, monitor);
+                } finally {
+                    out.close();
+                }
+            } catch (final Exception e) {
+                error = e;
+                // Drain, so that the producer is not blocked
+                try {
+                    while (!finished) {
+                        finished = queue.take().length == 0;
+                    }
+                } catch (final InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Enqueues a block.
+         *
+         * @param rows the rows
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void put(final String[][] rows) throws IOException {
+            try {
+                queue.put(rows);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while writing output", e);
+            }
+        }
+    }
+
+    /** The number of rows per block. */
+    private static final int        BLOCK_SIZE = 4096;
+
+    /** The number of blocks queued per partition. */
+    private static final int        QUEUE_SIZE = 4;
+
+    /** The marker for the end of the data. */
+    private static final String[][] END        = new String[0][];
+
+    /** The output file, from which the names of partitions are derived. */
+    private final File              output;
+
+    /** The format. */
+    private final OutputFormat      format;
+
+    /** The name of the format. */
+    private final String            formatName;
+
+    /** The number of partitions. */
+    private final int               partitions;
+
+    /** The partitioning attribute, or null. */
+    private final String            attribute;
+
+    /** The progress monitor, or null. */
+    private final ProgressMonitor   monitor;
+
+    /** The header. */
+    private String[]                header;
+
+    /**
+     * Creates a new partitioned output.
+     *
+     * @param output the output file, from which the names of partitions and of the manifest are derived
+     * @param format the format
+     * @param formatName the name of the format
+     * @param partitions the number of partitions
+     * @param attribute the partitioning attribute, or null to distribute rows round-robin
+     * @param monitor the progress monitor, or null
+     */
+    public PartitionedOutput(final File output,
+                             final OutputFormat format,
+                             final String formatName,
+                             final int partitions,
+                             final String attribute,
+                             final ProgressMonitor monitor) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("number of partitions must be positive: " + partitions);
+        }
+        this.output = output;
+        this.format = format;
+        this.formatName = formatName.trim().toUpperCase();
+        this.partitions = partitions;
+        this.attribute = attribute;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Writes the given rows, of which the first one is the header, and the manifest.
+     *
+     * @param rows the rows
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(final Iterator<String[]> rows) throws IOException {
+        if (!rows.hasNext()) {
+            throw new IOException("no data to write");
+        }
+        this.header = rows.next();
+        final int column = attribute == null ? -1 : Arrays.asList(header).indexOf(attribute);
+        if ((attribute != null) && (column == -1)) {
+            throw new IllegalArgumentException("partitioning attribute not found in data: " + attribute);
+        }
+
+        // Start writers
+        final Partition[] writers = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            writers[i] = new Partition(getFile(i));
+            writers[i].start();
+        }
+
+        // Distribute blocks
+        try {
+            final String[][][] buffers = new String[partitions][BLOCK_SIZE][];
+            final int[] sizes = new int[partitions];
+            int next = 0;
+            while (rows.hasNext()) {
+                final String[] row = rows.next();
+                final int partition;
+                if (column == -1) {
+                    partition = next;
+                } else {
+                    partition = (row[column].hashCode() & Integer.MAX_VALUE) % partitions;
+                    writers[partition].values.add(row[column]);
+                }
+                buffers[partition][sizes[partition]++] = row;
+                if (sizes[partition] == BLOCK_SIZE) {
+                    writers[partition].put(buffers[partition]);
+                    buffers[partition] = new String[BLOCK_SIZE][];
+                    sizes[partition] = 0;
+                    next = (next + 1) % partitions;
+                }
+            }
+            for (int i = 0; i < partitions; i++) {
+                if (sizes[i] > 0) {
+                    writers[i].put(Arrays.copyOf(buffers[i], sizes[i]));
+                }
+            }
+        } finally {
+            for (final Partition writer : writers) {
+                writer.put(END);
+            }
+        }
+
+        // Wait
+        for (final Partition writer : writers) {
+            try {
+                writer.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while writing output", e);
+            }
+            if (writer.error != null) {
+                throw new IOException("failed to write " + writer.file + ": " + writer.error.getMessage(), writer.error);
+            }
+        }
+        writeManifest(writers);
+    }
+
+    /**
+     * Returns the base name and the extension of the output file.
+     *
+     * @return the base name and the extension
+     */
+    private String[] getBaseName() {
+        final String name = output.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? new String[] { name.substring(0, dot), name.substring(dot) } : new String[] { name, "" };
+    }
+
+    /**
+     * Returns the file of the given partition.
+     *
+     * @param partition the partition
+     * @return the file
+     */
+    private File getFile(final int partition) {
+        final String[] name = getBaseName();
+        return new File(output.getAbsoluteFile().getParentFile(), String.format("%s-%05d%s", name[0], partition, name[1]));
+    }
+
+    /**
+     * Writes the manifest.
+     *
+     * @param writers the writers
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void writeManifest(final Partition[] writers) throws IOException {
+        long total = 0;
+        final StringBuilder files = new StringBuilder();
+        for (int i = 0; i < writers.length; i++) {
+            total += writers[i].rows;
+            files.append(i == 0 ? "\n    {\"path\":" : ",\n    {\"path\":");
+            OutputFormat.appendJson(files, writers[i].file.getName());
+            files.append(",\"rows\":").append(writers[i].rows);
+            if (attribute != null) {
+                files.append(",\"values\":[");
+                int j = 0;
+                for (final String value : writers[i].values) {
+                    if (j++ > 0) {
+                        files.append(',');
+                    }
+                    OutputFormat.appendJson(files, value);
+                }
+                files.append(']');
+            }
+            files.append('}');
+        }
+
+        final StringBuilder manifest = new StringBuilder("{\n  \"format\":");
+        OutputFormat.appendJson(manifest, formatName);
+        manifest.append(",\n  \"columns\":[");
+        for (int i = 0; i < header.length; i++) {
+            if (i > 0) {
+                manifest.append(',');
+            }
+            OutputFormat.appendJson(manifest, header[i]);
+        }
+        manifest.append("],\n  \"partitionBy\":");
+        OutputFormat.appendJson(manifest, attribute);
+        manifest.append(",\n  \"rows\":").append(total);
+        manifest.append(",\n  \"files\":[").append(files).append("\n  ]\n}\n");
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(output.getAbsoluteFile().getParentFile(),
+                                                                                   getBaseName()[0] + ".manifest.json")), "UTF-8");
+        try {
+            writer.write(manifest.toString());
+        } finally {
+            writer.close();
+        }
+    }
+}
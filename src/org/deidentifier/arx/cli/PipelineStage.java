@@ -0,0 +1,214 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A stage of the ingestion pipeline, which consumes the rows of a source in its own thread and hands them to the next
+ * stage in blocks through a bounded queue. When the queue is full, the stage waits until the next stage has caught up.
+ * Chaining stages lets parsing, dictionary encoding and building the data overlap. Errors of the source are rethrown
+ * to the next stage once all rows read before have been consumed. If the next stage fails, the stage has to be
+ * cancelled, as it would otherwise wait forever for its rows to be consumed. The first stage of a pipeline may report
+ * the rows it has handed on, except for the header, to a progress monitor. Subclasses may push rows into the stage
+ * instead of providing a source, by overriding {@link #produce()}.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class PipelineStage extends Thread implements Iterator<String[]> {
+
+    /** The number of rows per block. */
+    private static final int                BLOCK_SIZE = 4096;
+
+    /** The number of blocks queued between stages. */
+    private static final int                QUEUE_SIZE = 16;
+
+    /** The marker for the end of the data. */
+    private static final String[][]         END        = new String[0][];
+
+    /**
+     * Starts a stage which consumes the given source.
+     *
+     * @param name the name of the stage
+     * @param source the source
+     * @param monitor the monitor to which the rows read are reported, or null
+     * @return the stage, whose rows are those of the source
+     */
+    public static PipelineStage start(final String name, final Iterator<String[]> source, final ProgressMonitor monitor) {
+        final PipelineStage stage = new PipelineStage(name, source, monitor);
+        stage.start();
+        return stage;
+    }
+
+    /** The queue of blocks. */
+    private final BlockingQueue<String[][]> queue      = new ArrayBlockingQueue<String[][]>(QUEUE_SIZE);
+
+    /** The source. */
+    private final Iterator<String[]>        source;
+
+    /** The monitor to which the rows read are reported, or null. */
+    private final ProgressMonitor           monitor;
+
+    /** Whether the header has not been handed on yet. */
+    private boolean                         header     = true;
+
+    /** The block which is being filled. */
+    private String[][]                      buffer     = new String[BLOCK_SIZE][];
+
+    /** The number of rows in the block which is being filled. */
+    private int                             size;
+
+    /** The current block. */
+    private String[][]                      block;
+
+    /** The position in the current block. */
+    private int                             position;
+
+    /** Whether the end of the data has been reached. */
+    private boolean                         finished;
+
+    /** The error of the source, if any. */
+    private volatile RuntimeException       error;
+
+    /**
+     * Creates a new stage, whose rows are pushed by {@link #produce()}.
+     *
+     * @param name the name of the stage
+     * @param monitor the monitor to which the rows read are reported, or null
+     */
+    protected PipelineStage(final String name, final ProgressMonitor monitor) {
+        this(name, null, monitor);
+    }
+
+    /**
+     * Creates a new stage.
+     *
+     * @param name the name of the stage
+     * @param source the source
+     * @param monitor the monitor to which the rows read are reported, or null
+     */
+    private PipelineStage(final String name, final Iterator<String[]> source, final ProgressMonitor monitor) {
+        super("arx-" + name);
+        setDaemon(true);
+        this.source = source;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Stops this stage, if it is still running. Rows which have not been consumed are discarded.
+     */
+    public void cancel() {
+        interrupt();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!finished && ((block == null) || (position == block.length))) {
+            try {
+                block = queue.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            position = 0;
+            finished = block.length == 0;
+        }
+        if (finished && (error != null)) {
+            throw error;
+        }
+        return !finished;
+    }
+
+    @Override
+    public String[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return block[position++];
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void run() {
+        try {
+            try {
+                produce();
+            } catch (final RuntimeException e) {
+                error = e;
+            } catch (final InterruptedException e) {
+                throw e;
+            } catch (final Exception e) {
+                error = new IllegalStateException(e.getMessage(), e);
+            }
+            flush();
+            queue.put(END);
+        } catch (final InterruptedException e) {
+            // The next stage has been abandoned
+        }
+    }
+
+    /**
+     * Hands a row to the next stage.
+     *
+     * @param row the row
+     * @throws InterruptedException if the next stage has been abandoned
+     */
+    protected void emit(final String[] row) throws InterruptedException {
+        buffer[size++] = row;
+        if (size == BLOCK_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Produces the rows of this stage, by default those of the source.
+     *
+     * @throws Exception if the rows cannot be produced
+     */
+    protected void produce() throws Exception {
+        while (source.hasNext()) {
+            emit(source.next());
+        }
+    }
+
+    /**
+     * Hands the rows buffered so far to the next stage.
+     *
+     * @throws InterruptedException if the next stage has been abandoned
+     */
+    private void flush() throws InterruptedException {
+        if (size > 0) {
+            queue.put(size == BLOCK_SIZE ? buffer : Arrays.copyOf(buffer, size));
+            if (monitor != null) {
+                monitor.rowsRead(header ? size - 1 : size);
+            }
+            header = false;
+            buffer = new String[BLOCK_SIZE][];
+            size = 0;
+        }
+    }
+}
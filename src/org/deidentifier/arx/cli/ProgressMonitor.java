@@ -0,0 +1,325 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.deidentifier.arx.ARXListener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Collects live metrics during anonymization and periodically reports them on a print stream, to a JSON file
+ * which is rewritten atomically, and on a local HTTP endpoint in the Prometheus text format.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class ProgressMonitor implements ARXListener {
+
+    /** The charset used for reports. */
+    private static final Charset           UTF8          = Charset.forName("UTF-8");
+
+    /** Whether the search reports checked and pruned nodes. */
+    private volatile boolean               nodes;
+
+    /** The number of nodes checked. */
+    private final AtomicLong               nodesChecked  = new AtomicLong();
+
+    /** The number of nodes pruned. */
+    private final AtomicLong               nodesPruned   = new AtomicLong();
+
+    /** The number of rows read. */
+    private final AtomicLong               rowsRead      = new AtomicLong();
+
+    /** The number of rows written. */
+    private final AtomicLong               rowsWritten   = new AtomicLong();
+
+    /** The progress of the search in [0, 1]. */
+    private volatile double                progress;
+
+    /** The information loss of the best transformation found so far. */
+    private volatile double                bestScore     = Double.NaN;
+
+    /** The point in time at which monitoring started. */
+    private final long                     start         = System.currentTimeMillis();
+
+    /** The stream to report to, or null. */
+    private final PrintStream              stream;
+
+    /** The file to report to, or null. */
+    private final File                     file;
+
+    /** The scheduler. */
+    private final ScheduledExecutorService scheduler;
+
+    /** The HTTP server, or null. */
+    private HttpServer                     server;
+
+    /**
+     * Creates a new monitor.
+     *
+     * @param stream the stream to report to, or null
+     * @param file the JSON file to report to, or null
+     * @param interval the reporting interval in seconds
+     */
+    public ProgressMonitor(final PrintStream stream, final File file, final int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("progress interval must be positive: " + interval);
+        }
+        this.stream = stream;
+        this.file = file;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "arx-progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if ((stream != null) || (file != null)) {
+            this.scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Accounts for a checked node.
+     */
+    public void nodeChecked() {
+        nodesChecked.incrementAndGet();
+    }
+
+    /**
+     * Accounts for a pruned node.
+     */
+    public void nodePruned() {
+        nodesPruned.incrementAndGet();
+    }
+
+    /* (non-Javadoc)
+     * @see org.deidentifier.arx.ARXListener#progress(double)
+     */
+    @Override
+    public void progress(final double progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Accounts for rows read.
+     *
+     * @param rows the rows
+     */
+    public void rowsRead(final long rows) {
+        rowsRead.addAndGet(rows);
+    }
+
+    /**
+     * Accounts for written rows.
+     *
+     * @param rows the rows
+     */
+    public void rowsWritten(final long rows) {
+        rowsWritten.addAndGet(rows);
+    }
+
+    /**
+     * Sets the information loss of the best transformation found so far.
+     *
+     * @param score the score
+     */
+    public void setBestScore(final double score) {
+        this.bestScore = score;
+    }
+
+    /**
+     * Serves the metrics in the Prometheus text format on the given port of the loopback interface.
+     *
+     * @param port the port
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void serve(final int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] body = toPrometheus().getBytes(UTF8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops monitoring and writes a final report.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        if (server != null) {
+            server.stop(0);
+        }
+        report();
+    }
+
+    /**
+     * Declares that the search reports checked and pruned nodes. Otherwise, e.g. for the search of ARX, which does not
+     * report them, the numbers of nodes are not exported.
+     */
+    public void trackNodes() {
+        this.nodes = true;
+    }
+
+    /**
+     * Returns the elapsed time in seconds.
+     *
+     * @return the elapsed time
+     */
+    private double getElapsed() {
+        return (System.currentTimeMillis() - start) / 1000d;
+    }
+
+    /**
+     * Returns the throughput in rows per second.
+     *
+     * @param rows the rows
+     * @return the throughput
+     */
+    private double getThroughput(final long rows) {
+        final double elapsed = getElapsed();
+        return elapsed > 0d ? rows / elapsed : 0d;
+    }
+
+    /**
+     * Reports the current state.
+     */
+    private void report() {
+        if (stream != null) {
+            stream.println(toText());
+        }
+        if (file != null) {
+            try {
+                final File temp = new File(file.getPath() + ".tmp");
+                final Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF8);
+                try {
+                    writer.write(toJSON());
+                } finally {
+                    writer.close();
+                }
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (final IOException e) {
+                System.err.println("Cannot write progress file: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Renders the metrics as JSON.
+     *
+     * @return the string
+     */
+    private String toJSON() {
+        return String.format(Locale.US,
+                             "{\"elapsedSeconds\":%.3f,\"progress\":%.4f,\"nodesChecked\":%s,\"nodesPruned\":%s,\"bestScore\":%s," +
+                                     "\"rowsRead\":%d,\"rowsReadPerSecond\":%.1f,\"rowsWritten\":%d,\"rowsWrittenPerSecond\":%.1f}\n",
+                             getElapsed(),
+                             progress,
+                             nodes ? String.valueOf(nodesChecked.get()) : "null",
+                             nodes ? String.valueOf(nodesPruned.get()) : "null",
+                             Double.isNaN(bestScore) ? "null" : String.valueOf(bestScore),
+                             rowsRead.get(),
+                             getThroughput(rowsRead.get()),
+                             rowsWritten.get(),
+                             getThroughput(rowsWritten.get()));
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text format.
+     *
+     * @return the string
+     */
+    private String toPrometheus() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("# TYPE arx_elapsed_seconds gauge\n");
+        builder.append("arx_elapsed_seconds ").append(getElapsed()).append('\n');
+        builder.append("# TYPE arx_progress_ratio gauge\n");
+        builder.append("arx_progress_ratio ").append(progress).append('\n');
+        if (nodes) {
+            builder.append("# TYPE arx_nodes_checked_total counter\n");
+            builder.append("arx_nodes_checked_total ").append(nodesChecked.get()).append('\n');
+            builder.append("# TYPE arx_nodes_pruned_total counter\n");
+            builder.append("arx_nodes_pruned_total ").append(nodesPruned.get()).append('\n');
+        }
+        builder.append("# TYPE arx_best_score gauge\n");
+        builder.append("arx_best_score ").append(Double.isNaN(bestScore) ? "NaN" : String.valueOf(bestScore)).append('\n');
+        builder.append("# TYPE arx_rows_read_total counter\n");
+        builder.append("arx_rows_read_total ").append(rowsRead.get()).append('\n');
+        builder.append("# TYPE arx_rows_written_total counter\n");
+        builder.append("arx_rows_written_total ").append(rowsWritten.get()).append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * Renders the metrics as a single line of text.
+     *
+     * @return the string
+     */
+    private String toText() {
+        return String.format(Locale.US,
+                             "Progress: %.1fs elapsed, %.1f%% searched, %sbest score %s, %d rows read (%.0f/s), %d rows written (%.0f/s)",
+                             getElapsed(),
+                             progress * 100d,
+                             nodes ? nodesChecked.get() + " nodes checked, " + nodesPruned.get() + " pruned, " : "",
+                             Double.isNaN(bestScore) ? "-" : String.valueOf(bestScore),
+                             rowsRead.get(),
+                             getThroughput(rowsRead.get()),
+                             rowsWritten.get(),
+                             getThroughput(rowsWritten.get()));
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deidentifier.arx.Data;
+import org.deidentifier.arx.DataHandle;
+import org.deidentifier.arx.DataSubset;
+
+/**
+ * Compiles the queries accepted by {@link org.deidentifier.arx.DataSelector} into a predicate tree, which is
+ * evaluated column-wise. Each referenced column is dictionary-encoded once, which takes a hash lookup per row, each
+ * comparison is evaluated once per distinct value, and the resulting lookup tables are then combined for blocks of
+ * rows in parallel.
+ * <p>
+ * Syntax: comparisons of the form <code>'attribute' op 'value'</code> with op one of =, &lt;, &gt;, &lt;=, &gt;=,
+ * combined with <code>and</code>, <code>or</code> and parentheses. <code>and</code> binds stronger than
+ * <code>or</code>. Attributes and values may be quoted with single or double quotes. Like the interpreter of ARX,
+ * the compiler rejects queries which refer to unknown attributes, and values of typed attributes which cannot be
+ * parsed.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class QueryCompiler {
+
+    /**
+     * A node of the predicate tree.
+     */
+    static abstract class Predicate {
+
+        /**
+         * Renders the predicate as an SQL condition. Constants are replaced by placeholders and appended to the
+         * parameters as pairs of attribute and value.
+         *
+         * @param sql the sql
+         * @param parameters the parameters
+         * @param quote the quote for identifiers
+         */
+        protected abstract void appendSQL(StringBuilder sql, List<String[]> parameters, String quote);
+
+        /**
+         * Prepares the predicate for evaluation.
+         *
+         * @param columns the encoded columns
+         */
+        protected abstract void prepare(Map<Integer, EncodedColumn> columns);
+
+        /**
+         * Evaluates the predicate for the given row.
+         *
+         * @param row the row
+         * @return true, if the row matches
+         */
+        protected abstract boolean matches(int row);
+    }
+
+    /**
+     * A conjunction.
+     */
+    private static class And extends Predicate {
+
+        /** The operands. */
+        private final Predicate left, right;
+
+        /**
+         * Creates a new conjunction.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        private And(final Predicate left, final Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        protected void appendSQL(final StringBuilder sql, final List<String[]> parameters, final String quote) {
+            sql.append('(');
+            left.appendSQL(sql, parameters, quote);
+            sql.append(" AND ");
+            right.appendSQL(sql, parameters, quote);
+            sql.append(')');
+        }
+
+        @Override
+        protected boolean matches(final int row) {
+            return left.matches(row) && right.matches(row);
+        }
+
+        @Override
+        protected void prepare(final Map<Integer, EncodedColumn> columns) {
+            left.prepare(columns);
+            right.prepare(columns);
+        }
+    }
+
+    /**
+     * A comparison of an attribute with a constant.
+     */
+    private static class Comparison extends Predicate {
+
+        /** The attribute. */
+        private final String          attribute;
+
+        /** The column. */
+        private final int             column;
+
+        /** The operator. */
+        private final String          operator;
+
+        /** The constant. */
+        private final String          constant;
+
+        /** The parser, or null for strings. */
+        private final ValueParser     parser;
+
+        /** The encoded column. */
+        private EncodedColumn         encoded;
+
+        /** The result for each distinct value. */
+        private boolean[]             lookup;
+
+        /**
+         * Creates a new comparison.
+         *
+         * @param attribute the attribute
+         * @param column the column
+         * @param operator the operator
+         * @param constant the constant
+         * @param parser the parser, or null for strings
+         */
+        private Comparison(final String attribute, final int column, final String operator, final String constant, final ValueParser parser) {
+            this.attribute = attribute;
+            this.column = column;
+            this.operator = operator;
+            this.constant = constant;
+            this.parser = parser;
+        }
+
+        @Override
+        protected void appendSQL(final StringBuilder sql, final List<String[]> parameters, final String quote) {
+            sql.append(quote).append(quote.isEmpty() ? attribute : attribute.replace(quote, quote + quote)).append(quote);
+            sql.append(' ').append(operator).append(" ?");
+            parameters.add(new String[] { attribute, constant });
+        }
+
+        @Override
+        protected boolean matches(final int row) {
+            return lookup[encoded.codes[row]];
+        }
+
+        @Override
+        protected void prepare(final Map<Integer, EncodedColumn> columns) {
+            encoded = columns.get(column);
+            lookup = new boolean[encoded.values.length];
+            for (int i = 0; i < lookup.length; i++) {
+                lookup[i] = evaluate(encoded.values[i]);
+            }
+        }
+
+        /**
+         * Evaluates the comparison for a single value.
+         *
+         * @param value the value
+         * @return true, if the value matches
+         */
+        private boolean evaluate(final String value) {
+            final int cmp;
+            try {
+                cmp = parser != null ? parser.compare(value, constant) : value.compareTo(constant);
+            } catch (final ParseException e) {
+                throw new IllegalArgumentException("value of attribute " + attribute + " cannot be parsed: " + value);
+            }
+            switch (operator) {
+            case "=":
+                return cmp == 0;
+            case "<":
+                return cmp < 0;
+            case ">":
+                return cmp > 0;
+            case "<=":
+                return cmp <= 0;
+            case ">=":
+                return cmp >= 0;
+            default:
+                throw new IllegalStateException("unknown operator: " + operator);
+            }
+        }
+    }
+
+    /**
+     * A dictionary-encoded column. ARX encodes the data with dictionaries of its own, which are not exposed by its
+     * API, so each referenced column is encoded again with one lookup per row. Only the comparisons are evaluated per
+     * distinct value.
+     */
+    private static class EncodedColumn {
+
+        /** The code of each row. */
+        private final int[]    codes;
+
+        /** The distinct values. */
+        private final String[] values;
+
+        /**
+         * Encodes the given column.
+         *
+         * @param handle the handle
+         * @param column the column
+         */
+        private EncodedColumn(final DataHandle handle, final int column) {
+            final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+            final List<String> values = new ArrayList<String>();
+            this.codes = new int[handle.getNumRows()];
+            for (int row = 0; row < codes.length; row++) {
+                final String value = handle.getValue(row, column);
+                Integer code = dictionary.get(value);
+                if (code == null) {
+                    code = values.size();
+                    dictionary.put(value, code);
+                    values.add(value);
+                }
+                codes[row] = code;
+            }
+            this.values = values.toArray(new String[values.size()]);
+        }
+    }
+
+    /**
+     * A disjunction.
+     */
+    private static class Or extends Predicate {
+
+        /** The operands. */
+        private final Predicate left, right;
+
+        /**
+         * Creates a new disjunction.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        private Or(final Predicate left, final Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        protected void appendSQL(final StringBuilder sql, final List<String[]> parameters, final String quote) {
+            sql.append('(');
+            left.appendSQL(sql, parameters, quote);
+            sql.append(" OR ");
+            right.appendSQL(sql, parameters, quote);
+            sql.append(')');
+        }
+
+        @Override
+        protected boolean matches(final int row) {
+            return left.matches(row) || right.matches(row);
+        }
+
+        @Override
+        protected void prepare(final Map<Integer, EncodedColumn> columns) {
+            left.prepare(columns);
+            right.prepare(columns);
+        }
+    }
+
+    /** The number of rows per block, a multiple of 64. */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Returns whether the given token is a comparison operator.
+     *
+     * @param token the token
+     * @return true, if it is an operator
+     */
+    private static boolean isOperator(final String token) {
+        return token.equals("=") || token.equals("<") || token.equals(">") || token.equals("<=") || token.equals(">=");
+    }
+
+    /** The data. */
+    private final Data                     data;
+
+    /** The handle. */
+    private final DataHandle               handle;
+
+    /** The parsers of typed attributes. */
+    private final Map<String, ValueParser> parsers;
+
+    /** The tokens of the current query. */
+    private List<String>                   tokens;
+
+    /** The position in the tokens. */
+    private int                            position;
+
+    /** The referenced columns. */
+    private List<Integer>                  columns;
+
+    /**
+     * Creates a new compiler.
+     *
+     * @param data the data
+     * @param parsers the parsers of typed attributes; all other attributes are compared as strings
+     */
+    public QueryCompiler(final Data data, final Map<String, ValueParser> parsers) {
+        this.data = data;
+        this.handle = data.getHandle();
+        this.parsers = parsers;
+    }
+
+    /**
+     * Compiles the given query and evaluates it in parallel.
+     *
+     * @param query the query
+     * @param threads the number of threads
+     * @return the subset
+     * @throws ParseException If the query cannot be compiled
+     */
+    public DataSubset createSubset(final String query, final int threads) throws ParseException {
+        final Predicate predicate = compile(query);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Encode all referenced columns and evaluate the comparisons
+            final Map<Integer, Future<EncodedColumn>> futures = new HashMap<Integer, Future<EncodedColumn>>();
+            for (final Integer column : columns) {
+                if (!futures.containsKey(column)) {
+                    futures.put(column, executor.submit(new Callable<EncodedColumn>() {
+                        @Override
+                        public EncodedColumn call() {
+                            return new EncodedColumn(handle, column);
+                        }
+                    }));
+                }
+            }
+            final Map<Integer, EncodedColumn> encoded = new HashMap<Integer, EncodedColumn>();
+            for (final Map.Entry<Integer, Future<EncodedColumn>> entry : futures.entrySet()) {
+                encoded.put(entry.getKey(), entry.getValue().get());
+            }
+            predicate.prepare(encoded);
+
+            // Evaluate blocks of rows. Blocks are aligned to words, so that each thread writes distinct words.
+            final int rows = handle.getNumRows();
+            final long[] words = new long[(rows + 63) / 64];
+            final List<Future<?>> blocks = new ArrayList<Future<?>>();
+            for (int start = 0; start < rows; start += BLOCK_SIZE) {
+                final int from = start;
+                final int to = Math.min(rows, start + BLOCK_SIZE);
+                blocks.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int row = from; row < to; row++) {
+                            if (predicate.matches(row)) {
+                                words[row >>> 6] |= 1L << row;
+                            }
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> block : blocks) {
+                block.get();
+            }
+            return DataSubset.create(data, new BitSetView(BitSet.valueOf(words)));
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException(e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compiles the given query into a predicate tree.
+     *
+     * @param query the query
+     * @return the predicate
+     * @throws ParseException If the query cannot be compiled
+     */
+    Predicate compile(final String query) throws ParseException {
+        this.tokens = tokenize(query);
+        this.position = 0;
+        this.columns = new ArrayList<Integer>();
+        final Predicate predicate = parseDisjunction();
+        if (position != tokens.size()) {
+            throw new ParseException("unexpected token: " + tokens.get(position), position);
+        }
+        return predicate;
+    }
+
+    /**
+     * Consumes the next token.
+     *
+     * @return the token
+     * @throws ParseException If there are no more tokens
+     */
+    private String next() throws ParseException {
+        if (position >= tokens.size()) {
+            throw new ParseException("unexpected end of query", position);
+        }
+        return tokens.get(position++);
+    }
+
+    /**
+     * Parses a comparison.
+     *
+     * @return the predicate
+     * @throws ParseException If the query cannot be compiled
+     */
+    private Predicate parseComparison() throws ParseException {
+        final String attribute = unquote(next());
+        final String operator = next();
+        if (!isOperator(operator)) {
+            throw new ParseException("unknown operator: " + operator, position);
+        }
+        final String value = unquote(next());
+        int column = -1;
+        for (int i = 0; i < handle.getNumColumns(); i++) {
+            if (handle.getAttributeName(i).equals(attribute)) {
+                column = i;
+                break;
+            }
+        }
+        if (column == -1) {
+            throw new ParseException("unknown attribute: " + attribute, position);
+        }
+        final ValueParser parser = parsers.get(attribute);
+        if (parser != null) {
+            try {
+                parser.parse(value);
+            } catch (final ParseException e) {
+                throw new ParseException("value of attribute " + attribute + " cannot be parsed: " + value, position);
+            }
+        }
+        columns.add(column);
+        return new Comparison(attribute, column, operator, value, parser);
+    }
+
+    /**
+     * Parses a conjunction.
+     *
+     * @return the predicate
+     * @throws ParseException If the query cannot be compiled
+     */
+    private Predicate parseConjunction() throws ParseException {
+        Predicate predicate = parseFactor();
+        while ((position < tokens.size()) && tokens.get(position).equalsIgnoreCase("and")) {
+            position++;
+            predicate = new And(predicate, parseFactor());
+        }
+        return predicate;
+    }
+
+    /**
+     * Parses a disjunction.
+     *
+     * @return the predicate
+     * @throws ParseException If the query cannot be compiled
+     */
+    private Predicate parseDisjunction() throws ParseException {
+        Predicate predicate = parseConjunction();
+        while ((position < tokens.size()) && tokens.get(position).equalsIgnoreCase("or")) {
+            position++;
+            predicate = new Or(predicate, parseConjunction());
+        }
+        return predicate;
+    }
+
+    /**
+     * Parses a parenthesized expression or a comparison.
+     *
+     * @return the predicate
+     * @throws ParseException If the query cannot be compiled
+     */
+    private Predicate parseFactor() throws ParseException {
+        if ((position < tokens.size()) && tokens.get(position).equals("(")) {
+            position++;
+            final Predicate predicate = parseDisjunction();
+            if (!next().equals(")")) {
+                throw new ParseException("missing closing parenthesis", position);
+            }
+            return predicate;
+        }
+        return parseComparison();
+    }
+
+    /**
+     * Splits the query into tokens. Quoted tokens keep their quotes.
+     *
+     * @param query the query
+     * @return the tokens
+     * @throws ParseException If a quote is not terminated
+     */
+    private List<String> tokenize(final String query) throws ParseException {
+        final List<String> result = new ArrayList<String>();
+        int i = 0;
+        while (i < query.length()) {
+            final char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if ((c == '\'') || (c == '"')) {
+                final int end = query.indexOf(c, i + 1);
+                if (end == -1) {
+                    throw new ParseException("unterminated quote", i);
+                }
+                result.add(query.substring(i, end + 1));
+                i = end + 1;
+            } else if ((c == '(') || (c == ')') || (c == '=')) {
+                result.add(String.valueOf(c));
+                i++;
+            } else if ((c == '<') || (c == '>')) {
+                if (((i + 1) < query.length()) && (query.charAt(i + 1) == '=')) {
+                    result.add(query.substring(i, i + 2));
+                    i += 2;
+                } else {
+                    result.add(String.valueOf(c));
+                    i++;
+                }
+            } else {
+                final int start = i;
+                while ((i < query.length()) && !Character.isWhitespace(query.charAt(i)) && ("()=<>'\"".indexOf(query.charAt(i)) == -1)) {
+                    i++;
+                }
+                result.add(query.substring(start, i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes enclosing quotes.
+     *
+     * @param token the token
+     * @return the string
+     * @throws ParseException If the token is an operator or keyword
+     */
+    private String unquote(final String token) throws ParseException {
+        final char first = token.charAt(0);
+        if ((first == '\'') || (first == '"')) {
+            return token.substring(1, token.length() - 1);
+        }
+        if (isOperator(token) || token.equals("(") || token.equals(")") || token.equalsIgnoreCase("and") || token.equalsIgnoreCase("or")) {
+            throw new ParseException("unexpected token: " + token, position);
+        }
+        return token;
+    }
+}
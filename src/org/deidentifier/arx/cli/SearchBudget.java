@@ -0,0 +1,137 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+/**
+ * Limits the time and the number of nodes an anytime search may spend. The budget can also be
+ * cancelled asynchronously, e.g. from a shutdown hook when the process receives SIGINT.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class SearchBudget {
+
+    /**
+     * The reason why a search stopped.
+     */
+    public static enum StopReason {
+
+        /** The search converged before the budget was exhausted. */
+        CONVERGED,
+
+        /** The time limit has been reached. */
+        TIME_LIMIT,
+
+        /** The maximal number of nodes has been evaluated. */
+        NODE_LIMIT,
+
+        /** The search has been cancelled. */
+        CANCELLED
+    }
+
+    /** The point in time at which the search started. */
+    private final long       start;
+
+    /** The deadline in milliseconds, or Long.MAX_VALUE. */
+    private final long       deadline;
+
+    /** The maximal number of nodes, or Integer.MAX_VALUE. */
+    private final int        maxNodes;
+
+    /** The number of nodes evaluated so far. */
+    private int              nodes;
+
+    /** Whether the search has been cancelled. */
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new budget.
+     *
+     * @param timeLimit the time limit in seconds, or null for no limit
+     * @param maxNodes the maximal number of nodes, or null for no limit
+     */
+    public SearchBudget(final Long timeLimit, final Integer maxNodes) {
+        if ((timeLimit != null) && (timeLimit <= 0)) {
+            throw new IllegalArgumentException("time limit must be positive: " + timeLimit);
+        }
+        if ((maxNodes != null) && (maxNodes <= 0)) {
+            throw new IllegalArgumentException("node limit must be positive: " + maxNodes);
+        }
+        this.start = System.currentTimeMillis();
+        this.deadline = timeLimit == null ? Long.MAX_VALUE : start + (timeLimit * 1000L);
+        this.maxNodes = maxNodes == null ? Integer.MAX_VALUE : maxNodes;
+    }
+
+    /**
+     * Cancels the search. May be called from any thread.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Returns the elapsed time in milliseconds.
+     *
+     * @return the elapsed time
+     */
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Returns the number of nodes evaluated so far.
+     *
+     * @return the number of nodes
+     */
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the reason why the budget is exhausted, or null if it is not.
+     *
+     * @return the stop reason
+     */
+    public StopReason getStopReason() {
+        if (cancelled) {
+            return StopReason.CANCELLED;
+        } else if (nodes >= maxNodes) {
+            return StopReason.NODE_LIMIT;
+        } else if (System.currentTimeMillis() >= deadline) {
+            return StopReason.TIME_LIMIT;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the budget is exhausted.
+     *
+     * @return true, if exhausted
+     */
+    public boolean isExhausted() {
+        return getStopReason() != null;
+    }
+
+    /**
+     * Accounts for the evaluation of a node.
+     */
+    public void nodeEvaluated() {
+        nodes++;
+    }
+}
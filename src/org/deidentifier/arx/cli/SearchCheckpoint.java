@@ -0,0 +1,315 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.deidentifier.arx.AttributeType.Hierarchy;
+import org.deidentifier.arx.DataHandle;
+
+/**
+ * Stores the state of an anytime search in a file, from which the search can be resumed. Transformations are identified
+ * by their index in the lattice, and the sets of anonymous, non-anonymous and pruned transformations are stored as
+ * bitsets. The information loss of the anonymous transformations is stored in the order of their indices. A checkpoint
+ * is only resumed for the data, hierarchies and configuration from which it has been written, which is ensured by a
+ * fingerprint.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class SearchCheckpoint {
+
+    /** The magic number of checkpoint files. */
+    private static final int MAGIC   = 0x41525843;
+
+    /** The version of checkpoint files. */
+    private static final int VERSION = 1;
+
+    /**
+     * Computes the fingerprint of a search.
+     *
+     * @param handle the data
+     * @param attributes the quasi-identifiers
+     * @param hierarchies the hierarchies
+     * @param configuration a description of the privacy criteria, the suppression limit and the metric
+     * @return the fingerprint
+     */
+    public static long fingerprint(final DataHandle handle,
+                                   final String[] attributes,
+                                   final Map<String, Hierarchy> hierarchies,
+                                   final String configuration) {
+        long fingerprint = Fingerprint.hash(VERSION + configuration);
+        for (final String attribute : attributes) {
+            fingerprint = Fingerprint.mix(fingerprint, attribute);
+            for (final String[] row : hierarchies.get(attribute).getHierarchy()) {
+                for (final String value : row) {
+                    fingerprint = Fingerprint.mix(fingerprint, value);
+                }
+            }
+        }
+        for (int column = 0; column < handle.getNumColumns(); column++) {
+            fingerprint = Fingerprint.mix(fingerprint, handle.getAttributeName(column));
+            for (int row = 0; row < handle.getNumRows(); row++) {
+                fingerprint = Fingerprint.mix(fingerprint, handle.getValue(row, column));
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Reads a bitset.
+     *
+     * @param in the stream
+     * @return the bitset
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static BitSet readBits(final DataInputStream in) throws IOException {
+        final long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Writes a bitset.
+     *
+     * @param out the stream
+     * @param bits the bitset
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeBits(final DataOutputStream out, final BitSet bits) throws IOException {
+        final long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (final long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /** The file to which the state is written. */
+    private final File   file;
+
+    /** The fingerprint of the search. */
+    private final long   fingerprint;
+
+    /** The interval between checkpoints in milliseconds. */
+    private final long   interval;
+
+    /** The point in time at which the last checkpoint has been written. */
+    private long         last;
+
+    /** The anonymous transformations. */
+    private BitSet       anonymous    = new BitSet();
+
+    /** The information loss of the anonymous transformations, in the order of their indices. */
+    private double[]     losses       = new double[0];
+
+    /** The transformations which have been checked and are not anonymous. */
+    private BitSet       notAnonymous = new BitSet();
+
+    /** The transformations which have been pruned. */
+    private BitSet       pruned       = new BitSet();
+
+    /** The best transformation, or null. */
+    private int[]        best;
+
+    /** The information loss of the best transformation. */
+    private double       bestLoss     = Double.MAX_VALUE;
+
+    /**
+     * Creates a new checkpoint.
+     *
+     * @param file the file
+     * @param fingerprint the fingerprint of the search
+     * @param interval the interval between checkpoints in seconds
+     */
+    public SearchCheckpoint(final File file, final long fingerprint, final long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("checkpoint interval must be positive: " + interval);
+        }
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.interval = interval * 1000L;
+        this.last = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the anonymous transformations.
+     *
+     * @return the transformations
+     */
+    public BitSet getAnonymous() {
+        return anonymous;
+    }
+
+    /**
+     * Returns the best transformation, or null.
+     *
+     * @return the transformation
+     */
+    public int[] getBest() {
+        return best;
+    }
+
+    /**
+     * Returns the information loss of the best transformation.
+     *
+     * @return the information loss
+     */
+    public double getBestLoss() {
+        return bestLoss;
+    }
+
+    /**
+     * Returns the information loss of the anonymous transformations, in the order of their indices.
+     *
+     * @return the information loss
+     */
+    public double[] getLosses() {
+        return losses;
+    }
+
+    /**
+     * Returns the transformations which have been checked and are not anonymous.
+     *
+     * @return the transformations
+     */
+    public BitSet getNotAnonymous() {
+        return notAnonymous;
+    }
+
+    /**
+     * Returns the transformations which have been pruned.
+     *
+     * @return the transformations
+     */
+    public BitSet getPruned() {
+        return pruned;
+    }
+
+    /**
+     * Returns whether the next checkpoint is due.
+     *
+     * @return true, if due
+     */
+    public boolean isDue() {
+        return (System.currentTimeMillis() - last) >= interval;
+    }
+
+    /**
+     * Reads the state of the search from the given file, which must have been written for the same fingerprint.
+     *
+     * @param file the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void read(final File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new IOException("not a checkpoint: " + file);
+            }
+            if (in.readLong() != fingerprint) {
+                throw new IllegalArgumentException("checkpoint has been written for different data, hierarchies or criteria: " + file);
+            }
+            anonymous = readBits(in);
+            losses = new double[in.readInt()];
+            for (int i = 0; i < losses.length; i++) {
+                losses[i] = in.readDouble();
+            }
+            notAnonymous = readBits(in);
+            pruned = readBits(in);
+            final int length = in.readInt();
+            if (length < 0) {
+                best = null;
+            } else {
+                best = new int[length];
+                for (int i = 0; i < length; i++) {
+                    best[i] = in.readInt();
+                }
+            }
+            bestLoss = in.readDouble();
+        } finally {
+            in.close();
+        }
+        if (losses.length != anonymous.cardinality()) {
+            throw new IOException("corrupt checkpoint: " + file);
+        }
+    }
+
+    /**
+     * Writes the given state of the search to the file, replacing it atomically.
+     *
+     * @param anonymous the anonymous transformations
+     * @param losses the information loss of the anonymous transformations, in the order of their indices
+     * @param notAnonymous the transformations which have been checked and are not anonymous
+     * @param pruned the transformations which have been pruned
+     * @param best the best transformation, or null
+     * @param bestLoss the information loss of the best transformation
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(final BitSet anonymous,
+                      final double[] losses,
+                      final BitSet notAnonymous,
+                      final BitSet pruned,
+                      final int[] best,
+                      final double bestLoss) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            writeBits(out, anonymous);
+            out.writeInt(losses.length);
+            for (final double loss : losses) {
+                out.writeDouble(loss);
+            }
+            writeBits(out, notAnonymous);
+            writeBits(out, pruned);
+            if (best == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(best.length);
+                for (final int level : best) {
+                    out.writeInt(level);
+                }
+            }
+            out.writeDouble(bestLoss);
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        last = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads a sheet of an Excel workbook (.xlsx) as a stage of the ingestion pipeline. The sheet is parsed as a stream of
+ * SAX events, so that only the shared strings, but neither the workbook nor the sheet, are kept in memory. The first
+ * non-empty row of the sheet is the header. Cells are read as they are displayed, i.e. numbers and dates are formatted
+ * according to the format of their cell, and missing cells are read as empty values. Columns may be selected by the
+ * names in the header.<br>
+ * <br>
+ * POI 3.10 parses the content types, relationships, shared strings and styles with parsers that resolve entities
+ * (CVE-2014-3529, CVE-2014-3574). Before POI opens a workbook, the prolog of each of its parts is therefore checked,
+ * and workbooks with a part that declares a document type are rejected. Without a document type, no entities can be
+ * declared, so neither external entities nor entity expansion are possible.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class SpreadsheetInput extends PipelineStage {
+
+    /**
+     * Signals that the next stage has been abandoned while the sheet is parsed.
+     */
+    private static class Abandoned extends RuntimeException {
+
+        /** SVUID. */
+        private static final long serialVersionUID = -4402312475925329731L;
+    }
+
+    /**
+     * Receives the cells of a sheet and emits its rows.
+     */
+    private class Rows implements SheetContentsHandler {
+
+        /** The values of the current row, by column. */
+        private final List<String> values = new ArrayList<String>();
+
+        /** The column of the last cell of the current row. */
+        private int                column;
+
+        /** The indices of the selected columns, or null if the header has not been read. */
+        private int[]              selection;
+
+        @Override
+        public void cell(final String reference, final String value) {
+            column = reference == null ? column + 1 : new CellReference(reference).getCol();
+            while (values.size() <= column) {
+                values.add("");
+            }
+            values.set(column, value == null ? "" : value);
+        }
+
+        @Override
+        public void endRow() {
+            if (values.isEmpty()) {
+                return;
+            }
+            if (selection == null) { // header
+                selection = select(values);
+            }
+            final String[] row = new String[selection.length];
+            for (int i = 0; i < selection.length; i++) {
+                row[i] = selection[i] < values.size() ? values.get(selection[i]) : "";
+            }
+            try {
+                emit(row);
+            } catch (final InterruptedException e) {
+                throw new Abandoned();
+            }
+        }
+
+        @Override
+        public void headerFooter(final String text, final boolean isHeader, final String tagName) {
+            // Ignore
+        }
+
+        @Override
+        public void startRow(final int number) {
+            values.clear();
+            column = -1;
+        }
+    }
+
+    /**
+     * Returns whether the given file is a spreadsheet.
+     *
+     * @param file the file
+     * @return true, if the file is an Excel workbook
+     */
+    public static boolean isSpreadsheet(final File file) {
+        return (file != null) && file.getName().toLowerCase(Locale.ENGLISH).endsWith(".xlsx");
+    }
+
+    /**
+     * Rejects workbooks with a part that declares a document type.
+     *
+     * @param file the workbook
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void checkDocumentTypes(final File file) throws IOException {
+        final ZipFile zip = new ZipFile(file);
+        try {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final InputStream in = zip.getInputStream(entry);
+                try {
+                    if (hasDocumentType(in)) {
+                        throw new IllegalArgumentException("workbook part declares a document type: " + entry.getName() + " in " + file);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Returns whether the given part declares a document type. Only the prolog, which precedes the root element, is
+     * read. Parts which do not start like an XML document are not parsed as XML and are ignored.
+     *
+     * @param part the part
+     * @return true, if the part declares a document type or is XML in an encoding which is not checked
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static boolean hasDocumentType(final InputStream part) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(part);
+        in.mark(4);
+        final int[] bytes = { in.read(), in.read(), in.read(), in.read() };
+        in.reset();
+        final Charset charset;
+        if (((bytes[0] == 0xfe) && (bytes[1] == 0xff)) || ((bytes[0] == 0xff) && (bytes[1] == 0xfe))) {
+            if ((bytes[2] == 0) && (bytes[3] == 0)) {
+                return true; // UTF-32
+            }
+            charset = Charset.forName("UTF-16"); // removes the byte order mark
+        } else if ((bytes[0] == 0) && (bytes[1] == 0)) {
+            return (bytes[2] == 0xfe) || (bytes[3] == '<'); // UTF-32
+        } else if ((bytes[0] == 0) && (bytes[1] == '<')) {
+            charset = Charset.forName("UTF-16BE");
+        } else if ((bytes[0] == '<') && (bytes[1] == 0)) {
+            if ((bytes[2] == 0) && (bytes[3] == 0)) {
+                return true; // UTF-32
+            }
+            charset = Charset.forName("UTF-16LE");
+        } else {
+            charset = Charset.forName("UTF-8"); // markup is ASCII in all other encodings
+        }
+
+        final Reader reader = new InputStreamReader(in, charset);
+        int c = reader.read();
+        while (true) {
+            while ((c == '\ufeff') || Character.isWhitespace(c)) {
+                c = reader.read();
+            }
+            if ((c != '<') || ((c = reader.read()) == -1)) {
+                return false;
+            }
+            if (c == '?') { // XML declaration or processing instruction
+                skip(reader, "?>");
+            } else if (c == '!') { // comment or document type
+                if ((reader.read() != '-') || (reader.read() != '-')) {
+                    return true;
+                }
+                skip(reader, "-->");
+            } else { // root element
+                return false;
+            }
+            c = reader.read();
+        }
+    }
+
+    /**
+     * Skips all characters up to and including the given delimiter.
+     *
+     * @param reader the reader
+     * @param delimiter the delimiter
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void skip(final Reader reader, final String delimiter) throws IOException {
+        final StringBuilder window = new StringBuilder();
+        for (int c = reader.read(); c != -1; c = reader.read()) {
+            window.append((char) c);
+            if (window.length() > delimiter.length()) {
+                window.deleteCharAt(0);
+            }
+            if (window.toString().equals(delimiter)) {
+                return;
+            }
+        }
+    }
+
+    /** The workbook. */
+    private final File         file;
+
+    /** The name or the 1-based index of the sheet, or null for the first sheet. */
+    private final String       sheet;
+
+    /** The names of the selected columns, or null for all columns. */
+    private final List<String> columns;
+
+    /**
+     * Creates a new input. The sheet is read once the stage has been started.
+     *
+     * @param file the workbook
+     * @param sheet the name or the 1-based index of the sheet, or null for the first sheet
+     * @param columns the names of the selected columns, or null for all columns
+     * @param monitor the progress monitor, or null
+     */
+    public SpreadsheetInput(final File file, final String sheet, final List<String> columns, final ProgressMonitor monitor) {
+        super("sheet", monitor);
+        this.file = file;
+        this.sheet = sheet;
+        this.columns = columns;
+    }
+
+    @Override
+    protected void produce() throws Exception {
+        checkDocumentTypes(file);
+        final OPCPackage workbook = OPCPackage.open(file.getPath(), PackageAccess.READ);
+        try {
+            final XSSFReader reader = new XSSFReader(workbook);
+            final ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(workbook);
+            final InputStream in = open(reader);
+            try {
+                final SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                factory.setXIncludeAware(false);
+                factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+                factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+                factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+                final XMLReader parser = factory.newSAXParser().getXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), strings, new Rows(), new DataFormatter(), false));
+                parser.parse(new InputSource(in));
+            } catch (final Abandoned e) {
+                throw new InterruptedException();
+            } finally {
+                in.close();
+            }
+        } finally {
+            workbook.revert();
+        }
+    }
+
+    /**
+     * Opens the selected sheet.
+     *
+     * @param reader the reader of the workbook
+     * @return the stream of the sheet
+     * @throws Exception if the workbook cannot be read
+     */
+    private InputStream open(final XSSFReader reader) throws Exception {
+        int index = -1;
+        if (sheet == null) {
+            index = 1;
+        } else if (sheet.matches("[0-9]+")) {
+            index = Integer.parseInt(sheet);
+        }
+        final XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        final List<String> names = new ArrayList<String>();
+        while (sheets.hasNext()) {
+            final InputStream in = sheets.next();
+            names.add(sheets.getSheetName());
+            if (sheets.getSheetName().equals(sheet) || (names.size() == index)) {
+                return in;
+            }
+            in.close();
+        }
+        throw new IllegalArgumentException("sheet not found in " + file + ": " + sheet + ", available sheets " + names);
+    }
+
+    /**
+     * Returns the indices of the selected columns.
+     *
+     * @param header the header of the sheet
+     * @return the indices
+     */
+    private int[] select(final List<String> header) {
+        if (columns == null) {
+            final int[] selection = new int[header.size()];
+            for (int i = 0; i < selection.length; i++) {
+                selection[i] = i;
+            }
+            return selection;
+        }
+        final int[] selection = new int[columns.size()];
+        for (int i = 0; i < selection.length; i++) {
+            selection[i] = header.indexOf(columns.get(i));
+            if (selection[i] < 0) {
+                throw new IllegalArgumentException("column not found in sheet: " + columns.get(i) + ", available columns " + header);
+            }
+        }
+        return selection;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map.Entry;
+
+import org.deidentifier.arx.cli.CommandLineInterface.Metric;
+
+/**
+ * Writes the statistics of the anonymized data as JSON.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class StatisticsReport {
+
+    /** The thresholds of the re-identification risk, for which the rows at risk are reported. */
+    private static final double[] THRESHOLDS = { 0.5d, 0.2d, 0.1d, 0.05d };
+
+    /**
+     * Appends the given number as JSON.
+     *
+     * @param builder the builder
+     * @param value the value
+     */
+    static void appendNumber(final StringBuilder builder, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            builder.append("null");
+        } else if ((value == Math.rint(value)) && (Math.abs(value) < 1e15)) {
+            builder.append((long) value);
+        } else {
+            builder.append(value);
+        }
+    }
+
+    /** The statistics. */
+    private final OutputStatistics statistics;
+
+    /** The metric used for the search. */
+    private final Metric           metric;
+
+    /** The criteria. */
+    private final String           criteria;
+
+    /**
+     * Creates a new report.
+     *
+     * @param statistics the statistics
+     * @param metric the metric used for the search
+     * @param criteria the criteria
+     */
+    public StatisticsReport(final OutputStatistics statistics, final Metric metric, final String criteria) {
+        this.statistics = statistics;
+        this.metric = metric;
+        this.criteria = criteria;
+    }
+
+    /**
+     * Returns the report as JSON.
+     *
+     * @return the JSON
+     */
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder("{\n  \"criteria\":");
+        OutputFormat.appendJson(builder, criteria);
+        builder.append(",\n  \"metric\":");
+        OutputFormat.appendJson(builder, metric.name());
+        builder.append(",\n  \"rows\":").append(statistics.getNumRows());
+        builder.append(",\n  \"suppressed\":").append(statistics.getNumSuppressed());
+
+        // Classes
+        final int classes = statistics.getNumClasses();
+        builder.append(",\n  \"classes\":{\"count\":").append(classes);
+        if (classes > 0) {
+            builder.append(",\"minimum\":").append(statistics.getClassSizes().firstKey());
+            builder.append(",\"maximum\":").append(statistics.getClassSizes().lastKey());
+            builder.append(",\"average\":");
+            appendNumber(builder, (double) (statistics.getNumRows() - statistics.getNumSuppressed()) / classes);
+        }
+        builder.append(",\"sizes\":[");
+        int i = 0;
+        for (final Entry<Integer, Integer> entry : statistics.getClassSizes().entrySet()) {
+            builder.append(i++ == 0 ? "" : ",").append("{\"size\":").append(entry.getKey()).append(",\"classes\":").append(entry.getValue()).append('}');
+        }
+        builder.append("]}");
+
+        // Generalization
+        builder.append(",\n  \"generalization\":[");
+        for (i = 0; i < statistics.getAttributes().length; i++) {
+            builder.append(i == 0 ? "\n    {\"attribute\":" : ",\n    {\"attribute\":");
+            OutputFormat.appendJson(builder, statistics.getAttributes()[i]);
+            builder.append(",\"level\":").append(statistics.getLevels()[i]);
+            builder.append(",\"height\":").append(statistics.getHeights()[i]).append('}');
+        }
+        builder.append("\n  ]");
+
+        // Information loss
+        builder.append(",\n  \"informationLoss\":{");
+        i = 0;
+        for (final Metric value : Metric.values()) {
+            builder.append(i++ == 0 ? "\n    " : ",\n    ");
+            OutputFormat.appendJson(builder, value.name());
+            builder.append(':');
+            appendNumber(builder, statistics.getInformationLoss(value));
+        }
+        builder.append("\n  }");
+
+        // Risk
+        builder.append(",\n  \"risk\":{\"highest\":");
+        appendNumber(builder, statistics.getHighestRisk());
+        builder.append(",\"average\":");
+        appendNumber(builder, statistics.getAverageRisk());
+        builder.append(",\"rowsAbove\":{");
+        for (i = 0; i < THRESHOLDS.length; i++) {
+            builder.append(i == 0 ? "\"" : ",\"").append(THRESHOLDS[i]).append("\":").append(statistics.getNumRowsAtRisk(THRESHOLDS[i]));
+        }
+        builder.append("}}\n}\n");
+        return builder.toString();
+    }
+
+    /**
+     * Writes the report.
+     *
+     * @param file the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(final File file) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+}
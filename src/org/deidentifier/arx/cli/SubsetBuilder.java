@@ -0,0 +1,413 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.deidentifier.arx.Data;
+import org.deidentifier.arx.DataHandle;
+import org.deidentifier.arx.DataSubset;
+import org.deidentifier.arx.io.CSVDataInput;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongIntOpenHashMap;
+
+/**
+ * Builds research subsets with a hash join. The rows of the subset, read from a file or selected by a database, are
+ * counted in a hash table keyed by the 64-bit fingerprints of their values, which is probed with each row of the data
+ * in a single pass. Rows with the same fingerprint are distinguished by comparing their values. As with
+ * {@link DataSubset#create(Data, Data)}, each row of the subset is matched to one row of the data, so that duplicate
+ * rows of the data are only included as often as they occur in the subset, and an error is raised if a row of the
+ * subset is not found. Rows are compared on all columns, or on a single key column.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public class SubsetBuilder {
+
+    /**
+     * The distinct rows of a subset with their number of occurrences.
+     */
+    private static class Rows {
+
+        /** The index of the last row added with each fingerprint. */
+        private final LongIntOpenHashMap heads  = new LongIntOpenHashMap();
+
+        /** The values of each row. */
+        private final List<String[]>     values = new ArrayList<String[]>();
+
+        /** The number of unmatched occurrences of each row. */
+        private final IntArrayList       counts = new IntArrayList();
+
+        /** The index of the previous row with the same fingerprint, or -1. */
+        private final IntArrayList       next   = new IntArrayList();
+
+        /** The number of unmatched occurrences of all rows. */
+        private int                      size;
+
+        /**
+         * Adds an occurrence of a row.
+         *
+         * @param row the values of the row
+         */
+        private void add(final String[] row) {
+            long fingerprint = 0L;
+            for (final String value : row) {
+                fingerprint = Fingerprint.mix(fingerprint, value);
+            }
+            final int head = heads.containsKey(fingerprint) ? heads.lget() : -1;
+            for (int index = head; index != -1; index = next.get(index)) {
+                if (Arrays.equals(values.get(index), row)) {
+                    counts.set(index, counts.get(index) + 1);
+                    size++;
+                    return;
+                }
+            }
+            values.add(row);
+            counts.add(1);
+            next.add(head);
+            heads.put(fingerprint, values.size() - 1);
+            size++;
+        }
+
+        /**
+         * Returns the values of a row which has not been matched completely, or null if there is none.
+         *
+         * @return the values
+         */
+        private String[] getUnmatched() {
+            for (int i = 0; i < values.size(); i++) {
+                if (counts.get(i) > 0) {
+                    return values.get(i);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Matches a row of the data to an unmatched occurrence of a row with the same values in the given columns.
+         *
+         * @param handle the data
+         * @param row the row of the data
+         * @param columns the columns
+         * @return whether an occurrence has been matched
+         */
+        private boolean match(final DataHandle handle, final int row, final int[] columns) {
+            long fingerprint = 0L;
+            for (final int column : columns) {
+                fingerprint = Fingerprint.mix(fingerprint, handle.getValue(row, column));
+            }
+            if (!heads.containsKey(fingerprint)) {
+                return false;
+            }
+            outer: for (int index = heads.lget(); index != -1; index = next.get(index)) {
+                final String[] candidate = values.get(index);
+                for (int i = 0; i < columns.length; i++) {
+                    if (!candidate[i].equals(handle.getValue(row, columns[i]))) {
+                        continue outer;
+                    }
+                }
+                if (counts.get(index) == 0) {
+                    return false;
+                }
+                counts.set(index, counts.get(index) - 1);
+                size--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** The data. */
+    private final Data data;
+
+    /**
+     * Creates a new builder.
+     *
+     * @param data the data
+     */
+    public SubsetBuilder(final Data data) {
+        this.data = data;
+    }
+
+    /**
+     * Creates a subset from the rows of the data which match the rows selected by the given predicate. The predicate is
+     * evaluated by the database, which only returns the key columns of the selected rows, i.e. the given column or the
+     * columns of the primary key of the table. Comparisons use the native types of the columns in the database, so
+     * that strings are compared according to the collation of the database and not lexicographically by their
+     * characters, as by {@link QueryCompiler}.
+     *
+     * @param database the database from which the data has been loaded
+     * @param predicate the predicate
+     * @param key the key column, or null to use the primary key
+     * @return the data subset
+     * @throws SQLException
+     */
+    public DataSubset fromDatabase(final DatabaseSpec database, final QueryCompiler.Predicate predicate, final String key) throws SQLException {
+        final DataHandle handle = data.getHandle();
+        final Connection connection = database.connect();
+        try {
+            final DatabaseMetaData meta = connection.getMetaData();
+            final String quote = meta.getIdentifierQuoteString().trim();
+
+            // Determine the key columns
+            final int[] dataColumns;
+            if (key != null) {
+                dataColumns = new int[] { indexOf(handle, key) };
+            } else {
+                final Map<Integer, String> keys = new TreeMap<Integer, String>();
+                final ResultSet primaryKeys = meta.getPrimaryKeys(null, null, database.getTable());
+                try {
+                    while (primaryKeys.next()) {
+                        keys.put(primaryKeys.getInt("KEY_SEQ"), primaryKeys.getString("COLUMN_NAME"));
+                    }
+                } finally {
+                    primaryKeys.close();
+                }
+                if (keys.isEmpty()) {
+                    throw new IllegalArgumentException("table has no primary key, a key column has to be specified: " + database.getTable());
+                }
+                dataColumns = new int[keys.size()];
+                int i = 0;
+                for (final String column : keys.values()) {
+                    dataColumns[i++] = indexOf(handle, column);
+                }
+            }
+
+            // Determine the types of all columns
+            final Map<String, Integer> types = new HashMap<String, Integer>();
+            final ResultSet columns = meta.getColumns(null, null, database.getTable(), null);
+            try {
+                while (columns.next()) {
+                    types.put(columns.getString("COLUMN_NAME"), columns.getInt("DATA_TYPE"));
+                }
+            } finally {
+                columns.close();
+            }
+
+            // Build the statement
+            final StringBuilder sql = new StringBuilder("SELECT ");
+            for (int i = 0; i < dataColumns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(quote(handle.getAttributeName(dataColumns[i]), quote));
+            }
+            sql.append(" FROM ").append(quote(database.getTable(), quote)).append(" WHERE ");
+            final List<String[]> parameters = new ArrayList<String[]>();
+            predicate.appendSQL(sql, parameters, quote);
+
+            final PreparedStatement statement = connection.prepareStatement(sql.toString());
+            try {
+                for (int i = 0; i < parameters.size(); i++) {
+                    final Integer type = types.get(parameters.get(i)[0]);
+                    final String value = parameters.get(i)[1];
+                    if ((type != null) && isNumeric(type)) {
+                        try {
+                            statement.setBigDecimal(i + 1, new BigDecimal(value));
+                        } catch (final NumberFormatException e) {
+                            throw new IllegalArgumentException("not a number: " + value);
+                        }
+                    } else {
+                        statement.setString(i + 1, value);
+                    }
+                }
+
+                // Fetch the keys
+                final Rows rows = new Rows();
+                final ResultSet result = statement.executeQuery();
+                try {
+                    while (result.next()) {
+                        final String[] values = new String[dataColumns.length];
+                        for (int i = 0; i < dataColumns.length; i++) {
+                            final String value = result.getString(i + 1);
+                            values[i] = value == null ? "" : value;
+                        }
+                        rows.add(values);
+                    }
+                } finally {
+                    result.close();
+                }
+                return probe(rows, dataColumns, "the database");
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Creates a subset from the rows of the data which match the rows in the given file.
+     *
+     * @param file the file
+     * @param separator the separator
+     * @param key the key column, or null to compare all columns of the file
+     * @return the data subset
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public DataSubset fromFile(final File file, final char separator, final String key) throws IOException {
+        final Iterator<String[]> subset = new CSVDataInput(file, separator).iterator();
+        if (!subset.hasNext()) {
+            throw new IllegalArgumentException("subset file is empty: " + file);
+        }
+        final String[] header = subset.next();
+        final DataHandle handle = data.getHandle();
+
+        // Map the columns of the subset to the columns of the data
+        final int[] subsetColumns;
+        final int[] dataColumns;
+        if (key != null) {
+            subsetColumns = new int[] { indexOf(header, key, file.getPath()) };
+            dataColumns = new int[] { indexOf(handle, key) };
+        } else {
+            subsetColumns = new int[header.length];
+            dataColumns = new int[header.length];
+            for (int i = 0; i < header.length; i++) {
+                subsetColumns[i] = i;
+                dataColumns[i] = indexOf(handle, header[i]);
+            }
+        }
+
+        // Build
+        int width = 0;
+        for (final int column : subsetColumns) {
+            width = Math.max(width, column + 1);
+        }
+        final Rows rows = new Rows();
+        for (int line = 2; subset.hasNext(); line++) {
+            final String[] row = subset.next();
+            if (row.length < width) {
+                throw new IllegalArgumentException("row " + line + " of subset file " + file.getPath() + " has " + row.length + " columns, expected " + width);
+            }
+            final String[] values = new String[subsetColumns.length];
+            for (int i = 0; i < subsetColumns.length; i++) {
+                values[i] = row[subsetColumns[i]];
+            }
+            rows.add(values);
+        }
+
+        return probe(rows, dataColumns, "subset file " + file.getPath());
+    }
+
+    /**
+     * Creates a subset in which each of the given rows is matched to the first row of the data with the same values
+     * in the given columns, which has not been matched before.
+     *
+     * @param rows the rows
+     * @param dataColumns the columns
+     * @param source the source of the rows, for error messages
+     * @return the data subset
+     */
+    private DataSubset probe(final Rows rows, final int[] dataColumns, final String source) {
+        final DataHandle handle = data.getHandle();
+        final BitSet matched = new BitSet(handle.getNumRows());
+        for (int row = 0; (row < handle.getNumRows()) && (rows.size > 0); row++) {
+            if (rows.match(handle, row, dataColumns)) {
+                matched.set(row);
+            }
+        }
+        if (rows.size > 0) {
+            throw new IllegalArgumentException("no match found in data for row of " + source + ": " + Arrays.toString(rows.getUnmatched()));
+        }
+        return DataSubset.create(data, new BitSetView(matched));
+    }
+
+    /**
+     * Returns whether the given JDBC type is numeric.
+     *
+     * @param type the type
+     * @return true, if numeric
+     */
+    private boolean isNumeric(final int type) {
+        switch (type) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.FLOAT:
+        case Types.REAL:
+        case Types.DOUBLE:
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Quotes the given identifier.
+     *
+     * @param identifier the identifier
+     * @param quote the quote
+     * @return the quoted identifier
+     */
+    private String quote(final String identifier, final String quote) {
+        return quote + (quote.isEmpty() ? identifier : identifier.replace(quote, quote + quote)) + quote;
+    }
+
+    /**
+     * Returns the index of the given attribute in the data.
+     *
+     * @param handle the handle
+     * @param attribute the attribute
+     * @return the index
+     */
+    private int indexOf(final DataHandle handle, final String attribute) {
+        for (int i = 0; i < handle.getNumColumns(); i++) {
+            if (handle.getAttributeName(i).equals(attribute)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("attribute not found in data: " + attribute);
+    }
+
+    /**
+     * Returns the index of the given attribute in the header.
+     *
+     * @param header the header
+     * @param attribute the attribute
+     * @param file the file
+     * @return the index
+     */
+    private int indexOf(final String[] header, final String attribute, final String file) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(attribute)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("attribute not found in subset file " + file + ": " + attribute);
+    }
+}
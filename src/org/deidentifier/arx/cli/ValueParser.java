@@ -0,0 +1,431 @@
+/*
+ * ARX: Efficient, Stable and Optimal Data Anonymization
+ * Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.deidentifier.arx.cli;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+/**
+ * Thread-safe parsers for the values of typed attributes, which are used where the values are interpreted by the
+ * command line interface itself, i.e. in queries and in generated hierarchies. For common formats, i.e. plain
+ * integers, fixed-point decimals and ISO dates, values are parsed by hand without allocating any objects. Values
+ * which are not plain, and all other formats, are parsed with a per-thread instance of the general format, so that
+ * the fast parsers accept exactly the values accepted by the general format. Decimal formats are only parsed by hand
+ * if the default locale uses '.' as the decimal separator and '-' as the minus sign, as the fast parser does.
+ *
+ * @author Fabian Prasser
+ * @author Florian Kohlmayer
+ */
+public abstract class ValueParser {
+
+    /**
+     * Parses dates with the general format.
+     */
+    private static class DateParser extends ValueParser {
+
+        /** The formats. */
+        private final ThreadLocal<SimpleDateFormat> formats;
+
+        /**
+         * Creates a new parser.
+         *
+         * @param format the format
+         */
+        private DateParser(final String format) {
+            new SimpleDateFormat(format); // Fail early
+            this.formats = new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return new SimpleDateFormat(format);
+                }
+            };
+        }
+
+        @Override
+        public double parse(final String value) throws ParseException {
+            final Date date = formats.get().parse(value);
+            return date.getTime();
+        }
+    }
+
+    /**
+     * Parses decimals with the general format.
+     */
+    private static class DecimalParser extends ValueParser {
+
+        /** The formats. */
+        private final ThreadLocal<DecimalFormat> formats;
+
+        /**
+         * Creates a new parser.
+         *
+         * @param format the format, or null
+         */
+        private DecimalParser(final String format) {
+            if (format != null) {
+                new DecimalFormat(format); // Fail early
+            }
+            this.formats = format == null ? null : new ThreadLocal<DecimalFormat>() {
+                @Override
+                protected DecimalFormat initialValue() {
+                    return new DecimalFormat(format);
+                }
+            };
+        }
+
+        @Override
+        public double parse(final String value) throws ParseException {
+            if (formats == null) {
+                try {
+                    return Double.parseDouble(value);
+                } catch (final NumberFormatException e) {
+                    throw new ParseException("not a decimal: " + value, 0);
+                }
+            }
+            final ParsePosition position = new ParsePosition(0);
+            final Number number = formats.get().parse(value, position);
+            if (number == null) {
+                throw new ParseException("not a decimal: " + value, position.getErrorIndex());
+            }
+            return number.doubleValue();
+        }
+    }
+
+    /**
+     * Parses fixed-point decimals without a grouping separator or an exponent.
+     */
+    private static class FixedPointParser extends ValueParser {
+
+        /** The general parser. */
+        private final ValueParser fallback;
+
+        /**
+         * Creates a new parser.
+         *
+         * @param fallback the general parser
+         */
+        private FixedPointParser(final ValueParser fallback) {
+            this.fallback = fallback;
+        }
+
+        @Override
+        public double parse(final String value) throws ParseException {
+            final int length = value.length();
+            int i = 0;
+            boolean negative = false;
+            if ((length > 0) && (value.charAt(0) == '-')) { // An explicit plus sign is left to the general format
+                negative = true;
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = -1;
+            boolean seen = false;
+            for (; i < length; i++) {
+                final char c = value.charAt(i);
+                if ((c >= '0') && (c <= '9')) {
+                    seen = true;
+                    mantissa = (mantissa * 10) + (c - '0');
+                    if ((mantissa != 0) && (++digits > MAX_EXACT_DIGITS)) {
+                        return fallback.parse(value);
+                    }
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else if ((c == '.') && (scale < 0)) {
+                    scale = 0;
+                } else {
+                    return fallback.parse(value);
+                }
+            }
+            if (!seen || (scale >= POWERS_OF_TEN.length)) {
+                return fallback.parse(value);
+            }
+            // Correctly rounded, as the mantissa and the power of ten are exactly representable
+            final double result = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+            return negative ? -result : result;
+        }
+    }
+
+    /**
+     * Parses integers.
+     */
+    private static class IntegerParser extends ValueParser {
+
+        @Override
+        public int compare(final String value1, final String value2) throws ParseException {
+            final long parsed1 = parseLong(value1);
+            final long parsed2 = parseLong(value2);
+            return parsed1 < parsed2 ? -1 : (parsed1 == parsed2 ? 0 : 1);
+        }
+
+        @Override
+        public double parse(final String value) throws ParseException {
+            return parseLong(value);
+        }
+
+        /**
+         * Parses the given value with the general format.
+         *
+         * @param value the value
+         * @return the long
+         * @throws ParseException
+         */
+        private long parseGeneral(final String value) throws ParseException {
+            try {
+                return Long.parseLong(value);
+            } catch (final NumberFormatException e) {
+                throw new ParseException("not an integer: " + value, 0);
+            }
+        }
+
+        /**
+         * Parses the given value.
+         *
+         * @param value the value
+         * @return the long
+         * @throws ParseException
+         */
+        private long parseLong(final String value) throws ParseException {
+            final int length = value.length();
+            int i = 0;
+            boolean negative = false;
+            if ((length > 0) && ((value.charAt(0) == '-') || (value.charAt(0) == '+'))) {
+                negative = value.charAt(0) == '-';
+                i++;
+            }
+            if ((i == length) || ((length - i) > 18)) {
+                // Empty or possibly out of range
+                return parseGeneral(value);
+            }
+            long result = 0;
+            for (; i < length; i++) {
+                final char c = value.charAt(i);
+                if ((c < '0') || (c > '9')) {
+                    // E.g. non-ASCII digits
+                    return parseGeneral(value);
+                }
+                result = (result * 10) + (c - '0');
+            }
+            return negative ? -result : result;
+        }
+    }
+
+    /**
+     * Parses dates in the formats yyyy-MM-dd, yyyy-MM-dd HH:mm, yyyy-MM-dd HH:mm:ss and yyyy-MM-dd'T'HH:mm:ss in the
+     * default time zone, like the general format. Only local times skipped or repeated by daylight saving time may
+     * be mapped to different instants.
+     */
+    private static class IsoDateParser extends ValueParser {
+
+        /** The general parser. */
+        private final ValueParser fallback;
+
+        /** The separator between date and time, or 0. */
+        private final char        separator;
+
+        /** The length of values. */
+        private final int         length;
+
+        /** The time zone. */
+        private final TimeZone    zone = TimeZone.getDefault();
+
+        /**
+         * Creates a new parser.
+         *
+         * @param format the format
+         * @param fallback the general parser
+         */
+        private IsoDateParser(final String format, final ValueParser fallback) {
+            this.fallback = fallback;
+            this.separator = format.length() > 10 ? (format.charAt(10) == '\'' ? 'T' : ' ') : 0;
+            this.length = format.replace("'", "").length();
+        }
+
+        @Override
+        public double parse(final String value) throws ParseException {
+            if ((value.length() != length) || (value.charAt(4) != '-') || (value.charAt(7) != '-') ||
+                ((separator != 0) && (value.charAt(10) != separator))) {
+                return fallback.parse(value);
+            }
+            final int year = digits(value, 0, 4);
+            final int month = digits(value, 5, 2);
+            final int day = digits(value, 8, 2);
+            int hour = 0, minute = 0, second = 0;
+            if (separator != 0) {
+                hour = digits(value, 11, 2);
+                minute = value.charAt(13) == ':' ? digits(value, 14, 2) : -1;
+                if (length > 16) {
+                    second = value.charAt(16) == ':' ? digits(value, 17, 2) : -1;
+                }
+            }
+            if ((year < 1583) || (month < 1) || (month > 12) || (day < 1) || (day > daysInMonth(year, month)) ||
+                (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0) || (second > 59)) {
+                // Lenient or pre-Gregorian values
+                return fallback.parse(value);
+            }
+            final long local = ((((daysFromCivil(year, month, day) * 24L) + hour) * 60L + minute) * 60L + second) * 1000L;
+            return local - zone.getOffset(local - zone.getRawOffset());
+        }
+
+        /**
+         * Returns the number of days in the given month.
+         *
+         * @param year the year
+         * @param month the month
+         * @return the number of days
+         */
+        private int daysInMonth(final int year, final int month) {
+            switch (month) {
+            case 2:
+                return ((year % 4 == 0) && ((year % 100 != 0) || (year % 400 == 0))) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+            }
+        }
+
+        /**
+         * Returns the number of days since 1970-01-01 in the proleptic Gregorian calendar.
+         *
+         * @param year the year
+         * @param month the month
+         * @param day the day
+         * @return the number of days
+         */
+        private long daysFromCivil(final int year, final int month, final int day) {
+            final int y = month <= 2 ? year - 1 : year;
+            final int era = y / 400;
+            final int yoe = y - (era * 400);
+            final int doy = (((153 * (month > 2 ? month - 3 : month + 9)) + 2) / 5) + day - 1;
+            final int doe = (yoe * 365) + (yoe / 4) - (yoe / 100) + doy;
+            return ((long) era * 146097L) + doe - 719468L;
+        }
+
+        /**
+         * Parses the given digits, or returns -1.
+         *
+         * @param value the value
+         * @param offset the offset
+         * @param count the number of digits
+         * @return the number
+         */
+        private int digits(final String value, final int offset, final int count) {
+            int result = 0;
+            for (int i = offset; i < (offset + count); i++) {
+                final char c = value.charAt(i);
+                if ((c < '0') || (c > '9')) {
+                    return -1;
+                }
+                result = (result * 10) + (c - '0');
+            }
+            return result;
+        }
+    }
+
+    /** The maximal number of significant digits which are exactly representable as a double. */
+    private static final int      MAX_EXACT_DIGITS   = 15;
+
+    /** The powers of ten which are exactly representable as a double. */
+    private static final double[] POWERS_OF_TEN      = new double[23];
+
+    /** The decimal formats supported by the fast parser. */
+    private static final Pattern  FIXED_POINT_FORMAT = Pattern.compile("[#0]*(\\.[#0]+)?");
+
+    /** The date formats supported by the fast parser. */
+    private static final Pattern  ISO_DATE_FORMAT    = Pattern.compile("yyyy-MM-dd(( |'T')HH:mm(:ss)?)?");
+
+    static {
+        POWERS_OF_TEN[0] = 1d;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+        }
+    }
+
+    /**
+     * Creates a parser for the given data type and format, as used in the datatype option.
+     *
+     * @param type the type, i.e. STRING, INTEGER, DECIMAL or DATE
+     * @param format the format, may be empty
+     * @return the parser, or null for strings
+     */
+    public static ValueParser create(final String type, final String format) {
+        final boolean empty = (format == null) || (format.length() == 0);
+        switch (type) {
+        case "STRING":
+            return null;
+        case "INTEGER":
+            return new IntegerParser();
+        case "DECIMAL":
+            final ValueParser decimal = new DecimalParser(empty ? null : format);
+            if (empty || (FIXED_POINT_FORMAT.matcher(format).matches() && isPlainLocale())) {
+                return new FixedPointParser(decimal);
+            }
+            return decimal;
+        case "DATE":
+            final ValueParser date = new DateParser(empty ? "" : format);
+            if (ISO_DATE_FORMAT.matcher(format).matches()) {
+                return new IsoDateParser(format, date);
+            }
+            return date;
+        default:
+            throw new IllegalArgumentException("datatype not recognized: " + type);
+        }
+    }
+
+    /**
+     * Returns whether the symbols of the default locale match those expected by the fast parser of decimals.
+     *
+     * @return true, if the decimal separator is '.' and the minus sign is '-'
+     */
+    private static boolean isPlainLocale() {
+        final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        return (symbols.getDecimalSeparator() == '.') && (symbols.getMinusSign() == '-');
+    }
+
+    /**
+     * Compares the given values.
+     *
+     * @param value1 the first value
+     * @param value2 the second value
+     * @return the result of the comparison
+     * @throws ParseException If a value cannot be parsed
+     */
+    public int compare(final String value1, final String value2) throws ParseException {
+        return Double.compare(parse(value1), parse(value2));
+    }
+
+    /**
+     * Parses the given value into a number which orders like the value. Dates are parsed into milliseconds.
+     *
+     * @param value the value
+     * @return the number
+     * @throws ParseException If the value cannot be parsed
+     */
+    public abstract double parse(String value) throws ParseException;
+}
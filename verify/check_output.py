@@ -0,0 +1,128 @@
+#!/usr/bin/env python3
+#
+# ARX: Efficient, Stable and Optimal Data Anonymization
+# Copyright (C) 2012 - 2014 Florian Kohlmayer, Fabian Prasser
+#
+# This program is free software: you can redistribute it and/or modify
+# it under the terms of the GNU General Public License as published by
+# the Free Software Foundation, either version 3 of the License, or
+# (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with this program. If not, see <http://www.gnu.org/licenses/>.
+#
+
+"""Reads the output of verify/workbook in the formats CSV, COLUMNAR and ARROW with independent readers and checks
+that each of them contains the header and the insensitive values of verify/expected.json and that all formats
+contain the same table.
+
+Usage: check_output.py <directory> <separator>
+
+The directory must contain output.csv, output.arxc and output.arrow. CSV is read with the csv module of Python,
+COLUMNAR with the decoder below, which follows the specification in OutputFormat, and ARROW with pyarrow.
+"""
+
+import csv
+import json
+import os
+import struct
+import sys
+
+
+def read_csv(path, separator):
+    with open(path, newline='', encoding='utf-8') as file:
+        rows = list(csv.reader(file, delimiter=separator, quotechar='"', strict=True))
+    return rows[0], rows[1:]
+
+
+def read_columnar(path):
+    with open(path, 'rb') as file:
+        data = file.read()
+    position = [0]
+
+    def take(fmt):
+        values = struct.unpack_from(fmt, data, position[0])
+        position[0] += struct.calcsize(fmt)
+        return values[0]
+
+    def string():
+        length = take('>i')
+        value = data[position[0]:position[0] + length].decode('utf-8')
+        position[0] += length
+        return value
+
+    if data[0:4] != b'ARXC':
+        raise ValueError('invalid magic number: %r' % data[0:4])
+    position[0] = 4
+    version = take('>B')
+    if version != 1:
+        raise ValueError('unsupported version: %d' % version)
+    header = [string() for _ in range(take('>i'))]
+    rows = []
+    while True:
+        count = take('>i')
+        if count == 0:
+            break
+        columns = []
+        for _ in header:
+            dictionary = [string() for _ in range(take('>i'))]
+            width = take('>B')
+            code = {1: '>B', 2: '>H', 4: '>i'}[width]
+            columns.append([dictionary[take(code)] for _ in range(count)])
+        rows.extend([list(row) for row in zip(*columns)])
+    total = take('>q')
+    if total != len(rows):
+        raise ValueError('footer counts %d rows, groups contain %d' % (total, len(rows)))
+    if position[0] != len(data):
+        raise ValueError('%d trailing bytes' % (len(data) - position[0]))
+    return header, rows
+
+
+def read_arrow(path):
+    import pyarrow
+    import pyarrow.ipc
+    with pyarrow.OSFile(path, 'rb') as file:
+        table = pyarrow.ipc.open_stream(file).read_all()
+    table.validate(full=True)
+    for field in table.schema:
+        if field.type != pyarrow.utf8():
+            raise ValueError('column %s has type %s, expected utf8' % (field.name, field.type))
+    columns = [['' if value is None else value for value in column.to_pylist()] for column in table.columns]
+    return table.schema.names, [list(row) for row in zip(*columns)]
+
+
+def main():
+    if len(sys.argv) != 3:
+        sys.exit(__doc__)
+    directory, separator = sys.argv[1], sys.argv[2]
+    with open(os.path.join(os.path.dirname(os.path.abspath(__file__)), 'expected.json'), encoding='utf-8') as file:
+        expected = json.load(file)
+
+    outputs = [('CSV', read_csv(os.path.join(directory, 'output.csv'), separator)),
+               ('COLUMNAR', read_columnar(os.path.join(directory, 'output.arxc'))),
+               ('ARROW', read_arrow(os.path.join(directory, 'output.arrow')))]
+
+    failed = False
+    for name, (header, rows) in outputs:
+        notes = [row[header.index('note')] for row in rows] if 'note' in header else None
+        if header != expected['header']:
+            print('%s: header %r, expected %r' % (name, header, expected['header']))
+            failed = True
+        elif notes != expected['note']:
+            print('%s: values %r, expected %r' % (name, notes, expected['note']))
+            failed = True
+        elif (header, rows) != outputs[0][1]:
+            print('%s: table differs from CSV' % name)
+            failed = True
+        else:
+            print('%s: %d rows ok' % (name, len(rows)))
+    sys.exit(1 if failed else 0)
+
+
+if __name__ == '__main__':
+    main()